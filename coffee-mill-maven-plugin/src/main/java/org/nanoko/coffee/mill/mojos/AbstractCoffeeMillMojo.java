@@ -19,6 +19,8 @@ package org.nanoko.coffee.mill.mojos;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
+import org.nanoko.coffee.mill.utils.OutputStore;
+import org.nanoko.coffee.mill.utils.RhinoLauncher;
 
 import java.io.File;
 
@@ -116,6 +118,33 @@ public abstract class AbstractCoffeeMillMojo extends AbstractMojo {
      */
     public File libDir;
 
+    /**
+     * How the bundled JavaScript compilers (CoffeeScript, Less, Dust, CSSLint) are executed by Rhino, among
+     * INTERPRETED (default) and OPTIMIZED. In OPTIMIZED mode, they are compiled to Java bytecode once and the
+     * generated classes are cached in <tt>target/coffee-mill-cache/rhino-classes</tt>.
+     *
+     * @parameter default-value="INTERPRETED" expression="${rhino.engine}"
+     */
+    public RhinoLauncher.EngineMode rhinoEngineMode;
+
+    /**
+     * Enables incremental builds: processors skip the files that did not change since the last build. Processed
+     * files are recorded in <tt>target/coffee-mill-cache/manifest.bin</tt>.
+     *
+     * @parameter default-value="true" expression="${coffee.mill.incremental}"
+     */
+    public boolean incremental;
+
+    /**
+     * Enables the generation of source maps for the aggregated JavaScript and CSS files and for the JavaScript
+     * file minified with Google Closure. Disabled by default, as the aggregated files get a <tt>sourceMappingURL</tt>
+     * comment and the aggregation reads each file to count its lines instead of transferring it directly. Enable it
+     * with <tt>-Dcoffee.mill.sourceMaps=true</tt>.
+     *
+     * @parameter default-value="false" expression="${coffee.mill.sourceMaps}"
+     */
+    public boolean sourceMaps;
+
 
     public File getTarget() {
         return new File(project.getBuild().getDirectory());
@@ -134,4 +163,13 @@ public abstract class AbstractCoffeeMillMojo extends AbstractMojo {
     public File getLibDirectory() {
         return libDir;
     }
+
+    /**
+     * Gets the store in which the processors write their output files instead of the disk.
+     *
+     * @return the store, <code>null</code> if the files are written to the disk
+     */
+    public OutputStore getOutputStore() {
+        return null;
+    }
 }
@@ -38,6 +38,12 @@ public class CoffeeScriptCompilerMojo extends AbstractCoffeeMillMojo {
      */
     protected boolean skipCoffeeScriptCompilation;
 
+    /**
+     * The number of threads used to compile the files. Each thread owns its own Rhino context and compiler scope.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    public int compileThreads;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skipCoffeeScriptCompilation) {
             getLog().info("CoffeeScript compilation skipped");
@@ -51,7 +57,8 @@ public class CoffeeScriptCompilerMojo extends AbstractCoffeeMillMojo {
         }
 
         CoffeeScriptCompilationProcessor processor = new CoffeeScriptCompilationProcessor();
-        processor.configure(this, new OptionsHelper.OptionsBuilder().set("test", false).build());
+        processor.configure(this, new OptionsHelper.OptionsBuilder().set("test", false)
+                .set("threads", compileThreads).build());
         try {
             processor.processAll();
         } catch (Processor.ProcessorException e) {
@@ -55,6 +55,13 @@ public class JavaScriptCompilerMojo extends AbstractCoffeeMillMojo {
      */
     protected boolean skipDustCompilation;
 
+    /**
+     * The number of threads used to compile the dust templates. Each thread owns its own Rhino context and
+     * compiler scope.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    public int compileThreads;
+
 
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (! javaScriptDir.exists()) {
@@ -114,7 +121,7 @@ public class JavaScriptCompilerMojo extends AbstractCoffeeMillMojo {
 
     private void doDust() throws MojoExecutionException {
         DustJSProcessor processor = new DustJSProcessor();
-        processor.configure(this, null);
+        processor.configure(this, new OptionsHelper.OptionsBuilder().set("threads", compileThreads).build());
         try {
             processor.processAll();
         } catch (Processor.ProcessorException e) {
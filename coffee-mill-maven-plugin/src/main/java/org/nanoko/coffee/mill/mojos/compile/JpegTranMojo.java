@@ -44,6 +44,18 @@ public class JpegTranMojo extends AbstractCoffeeMillMojo {
      */
     protected boolean skipjpegTran;
 
+    /**
+     * The number of jpegtran processes running concurrently. Defaults to the number of available processors.
+     * @parameter expression="${coffee.mill.image.parallelism}"
+     */
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The time in seconds after which a jpegtran process is killed, 0 to disable the timeout.
+     * @parameter default-value=300
+     */
+    public int imageOptimizationTimeout;
+
 
     public JpegTranMojo() {
         processor = new JpegTranProcessor();
@@ -54,7 +66,8 @@ public class JpegTranMojo extends AbstractCoffeeMillMojo {
             return;
         }
 
-        processor.configure(this, new OptionsHelper.OptionsBuilder().set("verbose", true).build());
+        processor.configure(this, new OptionsHelper.OptionsBuilder().set("verbose", true)
+                .set("parallelism", parallelism).set("timeout", imageOptimizationTimeout * 1000).build());
 
         try {
             processor.processAll();
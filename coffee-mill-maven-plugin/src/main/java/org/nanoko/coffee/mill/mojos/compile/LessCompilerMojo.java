@@ -20,6 +20,7 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.processors.LessCompilationProcessor;
 import org.nanoko.coffee.mill.processors.Processor;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
 
 /**
  * Compiles Less files.
@@ -31,13 +32,19 @@ public class LessCompilerMojo extends AbstractCoffeeMillMojo {
 
     LessCompilationProcessor processor;
 
+    /**
+     * The number of threads used to compile the files. Each thread owns its own Rhino context and compiler scope.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    public int compileThreads;
+
     public LessCompilerMojo() {
         processor = new LessCompilationProcessor();
     }
 
 
     public void execute() throws MojoExecutionException, MojoFailureException {
-        processor.configure(this, null);
+        processor.configure(this, new OptionsHelper.OptionsBuilder().set("threads", compileThreads).build());
 
         if (! stylesheetsDir.exists()) {
             getLog().debug("The stylesheet directory does not exist - skipping LESS compilation");
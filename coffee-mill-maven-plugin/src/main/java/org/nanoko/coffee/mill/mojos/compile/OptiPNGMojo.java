@@ -50,6 +50,18 @@ public class OptiPNGMojo extends AbstractCoffeeMillMojo {
      */
     protected boolean skipOptiPNG;
 
+    /**
+     * The number of optipng processes running concurrently. Defaults to the number of available processors.
+     * @parameter expression="${coffee.mill.image.parallelism}"
+     */
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The time in seconds after which a optipng process is killed, 0 to disable the timeout.
+     * @parameter default-value=300
+     */
+    public int imageOptimizationTimeout;
+
     public OptiPNGMojo() {
         processor = new OptiPNGProcessor();
     }
@@ -65,7 +77,8 @@ public class OptiPNGMojo extends AbstractCoffeeMillMojo {
 
 
         processor.configure(this, new OptionsHelper.OptionsBuilder().set("verbose", true).set("level",
-                optiPngOptimizationLevel).build());
+                optiPngOptimizationLevel).set("parallelism", parallelism)
+                .set("timeout", imageOptimizationTimeout * 1000).build());
 
         try {
             processor.processAll();
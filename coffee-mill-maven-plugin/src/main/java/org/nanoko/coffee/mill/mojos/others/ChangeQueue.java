@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.maven.plugin.logging.Log;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+
+import java.io.File;
+
+/**
+ * Collects the file events sent by the file monitors and delivers them by bursts. A burst ends when no event was
+ * received during the quiet period. The events of a burst are collapsed in a {@link ChangeSet}, and delivered from
+ * a single thread, so listeners never run concurrently.
+ *
+ * A burst lasting more than 20 times the quiet period (a file written continuously...) is delivered in parts.
+ */
+public class ChangeQueue implements Runnable {
+
+    /**
+     * Receives the bursts of changes.
+     */
+    public interface Listener {
+        void changesDetected(ChangeSet changes);
+    }
+
+    private final Listener listener;
+
+    private final long quietPeriod;
+
+    private final Log log;
+
+    private ChangeSet pending = new ChangeSet();
+
+    /**
+     * Time of the first pending event, 0 if none.
+     */
+    private long firstEvent;
+
+    /**
+     * Time of the last pending event.
+     */
+    private long lastEvent;
+
+    private Thread thread;
+
+    /**
+     * Creates the queue.
+     *
+     * @param listener    the listener
+     * @param quietPeriod the quiet period in milliseconds
+     * @param log         the log
+     */
+    public ChangeQueue(Listener listener, long quietPeriod, Log log) {
+        this.listener = listener;
+        this.quietPeriod = quietPeriod;
+        this.log = log;
+    }
+
+    /**
+     * Enqueues a change.
+     *
+     * @param file the file
+     * @param kind the change
+     */
+    public synchronized void add(File file, ChangeSet.Kind kind) {
+        pending.add(file, kind);
+        lastEvent = System.currentTimeMillis();
+        if (firstEvent == 0) {
+            firstEvent = lastEvent;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Starts delivering the changes.
+     */
+    public synchronized void start() {
+        thread = new Thread(this, "coffee-mill-change-queue");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops delivering the changes. Pending changes are dropped.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            ChangeSet changes;
+            try {
+                changes = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!changes.isEmpty()) {
+                log.debug("Delivering " + changes.size() + " changes");
+                try {
+                    listener.changesDetected(changes);
+                } catch (RuntimeException e) {
+                    log.error("Error while processing " + changes, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the end of the current burst.
+     *
+     * @return the changes of the burst, empty if the changes cancelled each other
+     */
+    private synchronized ChangeSet take() throws InterruptedException {
+        while (true) {
+            if (firstEvent == 0) {
+                wait();
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            long deadline = Math.min(lastEvent + quietPeriod, firstEvent + 20 * quietPeriod);
+            if (now < deadline) {
+                wait(deadline - now);
+                continue;
+            }
+            ChangeSet changes = pending;
+            pending = new ChangeSet();
+            firstEvent = 0;
+            return changes;
+        }
+    }
+}
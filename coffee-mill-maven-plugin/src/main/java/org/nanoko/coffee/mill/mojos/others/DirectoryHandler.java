@@ -15,16 +15,255 @@
 
 package org.nanoko.coffee.mill.mojos.others;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.OutputStore;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Publishes a directory.
+ *
+ * Files are served with a strong ETag computed from their content, so browsers revalidate them with a conditional
+ * request answered by <tt>304 Not Modified</tt> when the file did not change. Text files are gzipped if the browser
+ * accepts it. The hashes and the compressed content are kept in memory until the file changes.
+ *
+ * If an {@link OutputStore} is given, the files of the store are served from memory, and the files deleted from
+ * the store are not served anymore.
  */
 public class DirectoryHandler extends ResourceHandler {
 
+    /**
+     * Text files larger than this size are not compressed.
+     */
+    private static final long MAX_COMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    private final File root;
+
+    private final OutputStore store;
+
+    private final ConcurrentMap<File, CachedFile> cache = new ConcurrentHashMap<File, CachedFile>();
+
     public DirectoryHandler(File workDirectory) {
+        this(workDirectory, null);
+    }
+
+    /**
+     * Creates the handler.
+     *
+     * @param workDirectory the published directory
+     * @param store         the store keeping the produced files, <code>null</code> if files are on the disk only
+     */
+    public DirectoryHandler(File workDirectory, OutputStore store) {
+        this.root = workDirectory.getAbsoluteFile();
+        this.store = store;
         setResourceBase(workDirectory.getAbsolutePath());
     }
+
+    /**
+     * Drops the cached data of the given files.
+     *
+     * @param files the changed files
+     */
+    public void invalidate(Collection<File> files) {
+        for (File file : files) {
+            cache.remove(file.getAbsoluteFile());
+        }
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (baseRequest.isHandled()) {
+            return;
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+        OutputStore.Entry entry = store == null ? null : store.get(new File(root, target));
+        if (entry != null && entry.getContent() == null) {
+            // Deleted from the store, but maybe not yet from the disk
+            baseRequest.setHandled(true);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        File file = entry == null ? resolve(target) : resolveInStore(target);
+        if (file == null || !(head || "GET".equals(request.getMethod()))) {
+            // Directories (welcome files), other methods...
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        CachedFile cached = entry == null ? getCachedFile(file) : getCachedEntry(file, entry);
+        boolean gzip = cached.compressed != null && acceptsGzip(request);
+        String etag = "\"" + cached.hash + (gzip ? "-gzip" : "") + "\"";
+
+        baseRequest.setHandled(true);
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "no-cache");
+        if (cached.compressed != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (cached.contentType != null) {
+            response.setContentType(cached.contentType);
+        }
+        response.setDateHeader("Last-Modified", cached.lastModified);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength(cached.compressed.length);
+            if (!head) {
+                response.getOutputStream().write(cached.compressed);
+            }
+        } else {
+            if (cached.length <= Integer.MAX_VALUE) {
+                response.setContentLength((int) cached.length);
+            }
+            if (!head && entry != null) {
+                response.getOutputStream().write(entry.getContent());
+            } else if (!head) {
+                InputStream in = new FileInputStream(file);
+                try {
+                    IOUtils.copy(in, response.getOutputStream());
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the file of the directory targeted by the request.
+     *
+     * @return the file, <code>null</code> if the file does not exist, is not a regular file or is outside of the
+     * directory.
+     */
+    private File resolve(String target) throws IOException {
+        File file = new File(root, target);
+        if (!file.isFile() || !file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator)) {
+            return null;
+        }
+        return file.getAbsoluteFile();
+    }
+
+    /**
+     * Gets the file of the store targeted by the request.
+     *
+     * @return the file, <code>null</code> if the file is outside of the directory.
+     */
+    private File resolveInStore(String target) throws IOException {
+        File file = new File(root, target);
+        if (!file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator)) {
+            return null;
+        }
+        return file.getAbsoluteFile();
+    }
+
+    private CachedFile getCachedEntry(File file, OutputStore.Entry entry) throws IOException {
+        byte[] content = entry.getContent();
+        CachedFile cached = cache.get(file);
+        if (cached != null && cached.lastModified == entry.getLastModified() && cached.length == content.length) {
+            return cached;
+        }
+
+        cached = new CachedFile();
+        cached.lastModified = entry.getLastModified();
+        cached.length = content.length;
+        Buffer mime = getMimeTypes().getMimeByExtension(file.getName());
+        cached.contentType = mime == null ? null : mime.toString();
+        cached.hash = HashUtils.sha1(content);
+        if (isText(cached.contentType) && cached.length <= MAX_COMPRESSED_SIZE) {
+            cached.compressed = gzip(content);
+        }
+        cache.put(file, cached);
+        return cached;
+    }
+
+    private CachedFile getCachedFile(File file) throws IOException {
+        CachedFile cached = cache.get(file);
+        if (cached != null && cached.lastModified == file.lastModified() && cached.length == file.length()) {
+            return cached;
+        }
+
+        cached = new CachedFile();
+        cached.lastModified = file.lastModified();
+        cached.length = file.length();
+        Buffer mime = getMimeTypes().getMimeByExtension(file.getName());
+        cached.contentType = mime == null ? null : mime.toString();
+        if (isText(cached.contentType) && cached.length <= MAX_COMPRESSED_SIZE) {
+            byte[] content = FileUtils.readFileToByteArray(file);
+            cached.hash = HashUtils.sha1(content);
+            cached.compressed = gzip(content);
+        } else {
+            cached.hash = HashUtils.sha1(file);
+        }
+        cache.put(file, cached);
+        return cached;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 3 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static boolean isText(String contentType) {
+        return contentType != null && (contentType.startsWith("text/") || contentType.contains("javascript")
+                || contentType.contains("json") || contentType.contains("xml"));
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String encodings = request.getHeader("Accept-Encoding");
+        return encodings != null && encodings.contains("gzip");
+    }
+
+    /**
+     * Checks an <tt>If-None-Match</tt> header against the current ETag.
+     */
+    private static boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class CachedFile {
+        private long lastModified;
+        private long length;
+        private String hash;
+        private String contentType;
+        /**
+         * The gzipped content, <code>null</code> for binary and large files.
+         */
+        private byte[] compressed;
+    }
 }
@@ -15,11 +15,14 @@
 
 package org.nanoko.coffee.mill.mojos.others;
 
-import org.apache.commons.io.FileUtils;
 import org.nanoko.coffee.mill.processors.DefaultProcessor;
+import org.nanoko.coffee.mill.processors.FileSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A processor copying final artifacts from reactor projects to the watched project.
@@ -35,17 +38,40 @@ public class FinalArtifactProcessor extends DefaultProcessor {
 
     public boolean accept(File file) {
         return
-                isFileContainedInDirectory(file, subProjectMojo.getTarget())
+                isOutputContainedInDirectory(file, subProjectMojo.getTarget())
                 && file.getName().contains(subProjectMojo.project.getBuild().getFinalName());
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(subProjectMojo.getTarget()));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Arrays.asList(new FileSet(watchedProjectMojo.getLibDirectory(), "js"),
+                new FileSet(watchedProjectMojo.getWorkDirectory(), "css"));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        if (input.getName().endsWith(".js")) {
+            return Collections.singletonList(new File(watchedProjectMojo.getLibDirectory(),
+                    subProjectMojo.project.getArtifactId() + ".js"));
+        }
+        if (input.getName().endsWith(".css")) {
+            return Collections.singletonList(new File(watchedProjectMojo.getWorkDirectory(), input.getName()));
+        }
+        return Collections.emptyList();
+    }
+
     public void fileCreated(File file) throws ProcessorException {
         if (file.getName().endsWith(".js")) {
             try {
                 File output = new File(watchedProjectMojo.getLibDirectory(), subProjectMojo.project.getArtifactId()
                         + ".js");
                 getLog().info("Copying " + file.getAbsolutePath() + " to " + output.getAbsolutePath());
-                FileUtils.copyFile(file, output);
+                writeOutput(output, readFileToByteArray(file));
                 return;
             } catch (IOException e) {
                 throw new ProcessorException("Can't copy " + file.getAbsolutePath() + " to " + watchedProjectMojo
@@ -57,7 +83,8 @@ public class FinalArtifactProcessor extends DefaultProcessor {
             try {
                 File output = new File(watchedProjectMojo.getWorkDirectory(), subProjectMojo.project.getArtifactId() + ".css");
                 getLog().info("Copying " + file.getAbsolutePath() + " to " + output.getAbsolutePath());
-                FileUtils.copyFileToDirectory(file, watchedProjectMojo.getWorkDirectory());
+                writeOutput(new File(watchedProjectMojo.getWorkDirectory(), file.getName()),
+                        readFileToByteArray(file));
                 return;
             } catch (IOException e) {
                 throw new ProcessorException("Can't copy " + file.getAbsolutePath() + " to " + watchedProjectMojo
@@ -72,11 +99,11 @@ public class FinalArtifactProcessor extends DefaultProcessor {
 
     public void fileDeleted(File file) throws ProcessorException {
         if (file.getName().endsWith("js")) {
-            FileUtils.deleteQuietly(new File(watchedProjectMojo.getLibDirectory(), file.getName()));
+            deleteOutput(new File(watchedProjectMojo.getLibDirectory(), file.getName()));
             return;
         }
         if (file.getName().endsWith("css")) {
-            FileUtils.deleteQuietly(new File(watchedProjectMojo.getWorkDirectory(), file.getName()));
+            deleteOutput(new File(watchedProjectMojo.getWorkDirectory(), file.getName()));
             return;
         }
     }
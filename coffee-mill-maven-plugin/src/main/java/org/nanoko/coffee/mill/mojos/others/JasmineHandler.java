@@ -19,6 +19,7 @@ import com.github.searls.jasmine.AbstractJasmineMojo;
 import com.github.searls.jasmine.TestMojo;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.nanoko.coffee.mill.processors.ChangeSet;
 import org.nanoko.coffee.mill.utils.JasmineUtils;
 
 import javax.servlet.ServletException;
@@ -28,11 +29,19 @@ import java.io.IOException;
 
 /**
  * Handler serving the Jasmine Runner.
+ * The runner is served from memory with an ETag, so refreshing the page without script addition or removal is
+ * answered by <tt>304 Not Modified</tt>.
  */
 public class JasmineHandler extends ResourceHandler {
+    /**
+     * The path of the runner executed by the headless browser of the watch mode.
+     */
+    public static final String HEADLESS_RUNNER = "/jasmine/headless";
+
     AbstractJasmineMojo jasmine;
     private JasmineRunnerGenerator createsManualRunner;
     private WatchMojo watchMojo;
+    private volatile String headlessRunner;
 
     public JasmineHandler(WatchMojo mojo) {
         this.watchMojo = mojo;
@@ -41,21 +50,48 @@ public class JasmineHandler extends ResourceHandler {
         createsManualRunner = new JasmineRunnerGenerator(mojo, jasmine);
     }
 
-    private void createManualSpecRunnerIfNecessary(String target) throws IOException {
-        if ("/jasmine".equals(target)) {
-            watchMojo.getLog().info("Generating Jasmine Runner");
-            createsManualRunner.create();
-        }
+    /**
+     * Notifies the handler of a burst of changes, the runner is regenerated if scripts were added or removed.
+     *
+     * @param changes the changes
+     */
+    public void filesChanged(ChangeSet changes) {
+        createsManualRunner.filesChanged(changes);
+    }
+
+    public JasmineRunnerGenerator getGenerator() {
+        return createsManualRunner;
+    }
+
+    /**
+     * Sets the runner served on {@link #HEADLESS_RUNNER}.
+     *
+     * @param html the runner HTML
+     */
+    public void setHeadlessRunner(String html) {
+        this.headlessRunner = html;
     }
 
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        createManualSpecRunnerIfNecessary(target);
         if ("/jasmine".equals(target)) {
+            JasmineRunnerGenerator.Runner runner = createsManualRunner.getRunner();
+            baseRequest.setHandled(true);
+            response.setHeader("ETag", runner.getETag());
+            response.setHeader("Cache-Control", "no-cache");
+            if (runner.getETag().equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
             response.setContentType("text/html;charset=utf-8");
             response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(runner.getHtml());
+        } else if (HEADLESS_RUNNER.equals(target) && headlessRunner != null) {
             baseRequest.setHandled(true);
-            response.getWriter().println(createsManualRunner.getHtml());
+            response.setHeader("Cache-Control", "no-cache");
+            response.setContentType("text/html;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(headlessRunner);
         } else {
             super.handle(target, baseRequest, request, response);
         }
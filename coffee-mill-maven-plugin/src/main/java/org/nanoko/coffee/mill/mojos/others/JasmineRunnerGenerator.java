@@ -23,9 +23,13 @@ import com.github.searls.jasmine.runner.SpecRunnerHtmlGeneratorFactory;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.StringUtils;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.OutputStore;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,6 +37,9 @@ import java.util.Set;
 /**
  * Generates the JAsmine Runner served by the _watch_ server.
  * This class is pretty close of the Manual Generator Creation of Jasmine but customize the script urls
+ *
+ * The runner is kept in memory. The script list is computed once, then maintained from the changes of the watch
+ * mode (see {@link #filesChanged(ChangeSet)}), and the runner is only regenerated when a script is added or removed.
  */
 public class JasmineRunnerGenerator {
 
@@ -41,6 +48,21 @@ public class JasmineRunnerGenerator {
     private Log log;
     private AbstractJasmineMojo jasmineMojo;
 
+    /**
+     * The paths of the sources, <code>null</code> until the work directory is listed.
+     */
+    private Set<String> sources;
+
+    /**
+     * The paths of the specs, <code>null</code> until the work test directory is listed.
+     */
+    private Set<String> specs;
+
+    /**
+     * The current runner, <code>null</code> if it must be regenerated.
+     */
+    private Runner runner;
+
     public JasmineRunnerGenerator(WatchMojo mojo, AbstractJasmineMojo jasmineMojo) {
         log = mojo.getLog();
         this.mojo = mojo;
@@ -48,52 +70,153 @@ public class JasmineRunnerGenerator {
     }
 
     public String getHtml() throws IOException {
-        File jasmineDir = new File(mojo.project.getBuild().getDirectory(), "jasmine");
-        File runnerDestination = new File(jasmineDir, "watch-jasmine-runner.html");
-        if (! runnerDestination.exists()) {
+        return getRunner().getHtml();
+    }
+
+    /**
+     * Gets the current runner, generates it if the script list changed since the last generation.
+     *
+     * @return the runner
+     * @throws IOException if the runner cannot be generated
+     */
+    public synchronized Runner getRunner() throws IOException {
+        if (runner == null) {
             create();
         }
-        return FileUtils.readFileToString(runnerDestination);
-
+        return runner;
     }
 
-    public void create() throws IOException {
+    public synchronized void create() throws IOException {
         File jasmineDir = new File(mojo.project.getBuild().getDirectory(), "jasmine");
         File runnerDestination = new File(jasmineDir, "watch-jasmine-runner.html");
 
-        AbstractScriptResolver resolver = new WatchScripResolver();
-        SpecRunnerHtmlGenerator generator = new SpecRunnerHtmlGeneratorFactory().create(ReporterType.HtmlReporter,
-                jasmineMojo, resolver);
-
-        String newRunnerHtml = generator.generate();
-        if(newRunnerDiffersFromOldRunner(runnerDestination, newRunnerHtml)) {
+        log.info("Generating Jasmine Runner");
+        String newRunnerHtml = generate(null, ReporterType.HtmlReporter);
+        if (runner == null || !StringUtils.equals(newRunnerHtml, runner.getHtml())) {
+            // The file is kept for the users opening the runner without the server.
             saveRunner(runnerDestination, newRunnerHtml);
-        } else {
-            log.info("Skipping spec runner generation, because an identical spec runner already exists.");
         }
+        runner = new Runner(newRunnerHtml);
     }
 
-    private String existingRunner(File destination) throws IOException {
-        String existingRunner = null;
-        try {
-            if(destination.exists()) {
-                existingRunner = FileUtils.readFileToString(destination);
+    /**
+     * Generates a runner executing a subset of the specs.
+     *
+     * @param selection the paths of the specs to run, all the specs if <code>null</code>
+     * @param reporter  the reporter
+     * @return the runner HTML
+     * @throws IOException if the runner cannot be generated
+     */
+    public synchronized String generate(Collection<String> selection, ReporterType reporter) throws IOException {
+        AbstractScriptResolver resolver = new WatchScripResolver(selection);
+        SpecRunnerHtmlGenerator generator = new SpecRunnerHtmlGeneratorFactory().create(reporter, jasmineMojo,
+                resolver);
+        return generator.generate();
+    }
+
+    /**
+     * Gets the paths of the specs, relative to the server root.
+     *
+     * @return the paths
+     */
+    public synchronized Set<String> getSpecs() {
+        if (specs == null) {
+            specs = list(mojo.getWorkTestDirectory());
+        }
+        return new LinkedHashSet<String>(specs);
+    }
+
+    /**
+     * Updates the script list from a burst of changes. The runner is regenerated on the next request if a script
+     * was added or removed. Updated scripts do not change the runner.
+     *
+     * @param changes the changes, including the files written by the processors
+     */
+    public synchronized void filesChanged(ChangeSet changes) {
+        boolean changed = false;
+        for (File file : changes.getFiles()) {
+            if (!file.getName().endsWith(".js") || changes.getKind(file) == ChangeSet.Kind.UPDATED) {
+                continue;
+            }
+            boolean created = changes.getKind(file) == ChangeSet.Kind.CREATED;
+            if (sources != null && isInDirectory(file, mojo.getWorkDirectory())) {
+                changed |= update(sources, toPath(mojo.getWorkDirectory(), file), created);
+            } else if (specs != null && isInDirectory(file, mojo.getWorkTestDirectory())) {
+                changed |= update(specs, toPath(mojo.getWorkTestDirectory(), file), created);
             }
-        } catch(Exception e) {
-            log.warn("An error occurred while trying to open an existing manual spec runner. Continuing.");
         }
-        return existingRunner;
+        if (changed) {
+            runner = null;
+        }
+    }
+
+    private static boolean update(Set<String> paths, String path, boolean created) {
+        return created ? paths.add(path) : paths.remove(path);
+    }
+
+    private static boolean isInDirectory(File file, File directory) {
+        return directory != null && file.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator);
+    }
+
+    private static String toPath(File directory, File file) {
+        String path = file.getAbsolutePath().substring(directory.getAbsolutePath().length());
+        path = path.replace(File.separatorChar, '/');
+        if (path.startsWith("/")) {
+            return path;
+        } else {
+            return "/" + path;
+        }
     }
 
-    private boolean newRunnerDiffersFromOldRunner(File runnerDestination, String newRunner) throws IOException {
-        return !StringUtils.equals(newRunner, existingRunner(runnerDestination));
+    /**
+     * Lists the scripts of a directory, including the files kept in memory by the watch mode.
+     */
+    private Set<String> list(File directory) {
+        Set<String> set = new LinkedHashSet<String>();
+        if (directory == null || !directory.isDirectory() && mojo.getOutputStore() == null) {
+            return set;
+        }
+        OutputStore store = mojo.getOutputStore();
+        Collection<File> files = store == null ? FileUtils.listFiles(directory, new String[]{"js"}, true)
+                : store.listFiles(directory, new String[]{"js"});
+        for (File f : files) {
+            set.add(toPath(directory, f));
+        }
+        return set;
     }
 
     private void saveRunner(File runnerDestination, String newRunner) throws IOException {
         FileUtils.writeStringToFile(runnerDestination, newRunner, "UTF-8");
     }
 
+    /**
+     * A generated runner and its ETag.
+     */
+    public static class Runner {
+        private final String html;
+        private final String etag;
+
+        private Runner(String html) {
+            this.html = html;
+            this.etag = "\"" + HashUtils.sha1(html) + "\"";
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+    }
+
     private class WatchScripResolver extends AbstractScriptResolver {
+        private final Collection<String> selection;
+
+        private WatchScripResolver(Collection<String> selection) {
+            this.selection = selection;
+        }
+
         @Override
         public Set<String> getAllScripts() {
             Set<String> set = new LinkedHashSet<String>();
@@ -113,23 +236,16 @@ public class JasmineRunnerGenerator {
                     set.add("/" + s);
                 }
             } else {
-                for (File f : FileUtils.listFiles(mojo.getWorkDirectory(), new String[] {"js"}, true)) {
-                    String path = f.getAbsolutePath().substring(mojo.getWorkDirectory().getAbsolutePath().length());
-                    if (path.startsWith("/")) {
-                        set.add(path);
-                    } else {
-                        set.add("/" + path);
-                    }
+                if (sources == null) {
+                    sources = list(mojo.getWorkDirectory());
                 }
+                set.addAll(sources);
             }
 
             // Specs
-            for (File f : FileUtils.listFiles(mojo.getWorkTestDirectory(), new String[] {"js"}, true)) {
-                String path = f.getAbsolutePath().substring(mojo.getWorkTestDirectory().getAbsolutePath().length());
-                if (path.startsWith("/")) {
-                    set.add(path);
-                } else {
-                    set.add("/" + path);
+            for (String spec : JasmineRunnerGenerator.this.getSpecs()) {
+                if (selection == null || selection.contains(spec)) {
+                    set.add(spec);
                 }
             }
 
@@ -139,8 +255,4 @@ public class JasmineRunnerGenerator {
         public void resolveScripts() throws IOException { }
     }
 
-
-
-
-
 }
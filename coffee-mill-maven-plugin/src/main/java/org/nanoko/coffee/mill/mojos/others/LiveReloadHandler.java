@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pushes the paths of the changed files to the browsers, so pages can swap the updated stylesheets or reload
+ * themselves. Pages include the <tt>/livereload.js</tt> script, which long-polls <tt>/livereload?since=version</tt>.
+ * A poll returns as soon as files changed after the given version, or after 30 seconds:
+ * <pre>{"version":12,"files":["/app.css","/app.css.map"]}</pre>
+ * The <tt>*</tt> path means that the changes are unknown (history exceeded, server restarted...) and the page must
+ * be reloaded.
+ */
+public class LiveReloadHandler extends AbstractHandler {
+
+    public static final String PATH = "/livereload";
+
+    public static final String SCRIPT = "/livereload.js";
+
+    private static final String SCRIPT_RESOURCE = "/livereload/livereload.js";
+
+    /**
+     * The number of changes kept for the late pollers.
+     */
+    private static final int HISTORY_SIZE = 100;
+
+    private final long timeout;
+
+    private long version;
+
+    private final LinkedList<Change> history = new LinkedList<Change>();
+
+    private final List<Continuation> waiting = new ArrayList<Continuation>();
+
+    public LiveReloadHandler() {
+        this(30000);
+    }
+
+    /**
+     * Creates the handler.
+     *
+     * @param timeout the maximum duration of a poll in milliseconds
+     */
+    public LiveReloadHandler(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Notifies the browsers of changed files.
+     *
+     * @param paths the paths of the files, relative to the server root
+     */
+    public void publish(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        List<Continuation> polls;
+        synchronized (this) {
+            version++;
+            history.add(new Change(version, paths));
+            if (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            polls = new ArrayList<Continuation>(waiting);
+            waiting.clear();
+        }
+        for (Continuation poll : polls) {
+            try {
+                poll.resume();
+            } catch (IllegalStateException e) {
+                // Already expired
+            }
+        }
+    }
+
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        if (SCRIPT.equals(target)) {
+            baseRequest.setHandled(true);
+            response.setContentType("text/javascript;charset=utf-8");
+            InputStream script = LiveReloadHandler.class.getResourceAsStream(SCRIPT_RESOURCE);
+            try {
+                IOUtils.copy(script, response.getOutputStream());
+            } finally {
+                IOUtils.closeQuietly(script);
+            }
+            return;
+        }
+        if (!PATH.equals(target)) {
+            return;
+        }
+
+        baseRequest.setHandled(true);
+        long since = -1;
+        try {
+            if (request.getParameter("since") != null) {
+                since = Long.parseLong(request.getParameter("since"));
+            }
+        } catch (NumberFormatException e) {
+            // Handled as a new client
+        }
+
+        String json;
+        synchronized (this) {
+            Continuation continuation = ContinuationSupport.getContinuation(request);
+            if (since == version && !continuation.isExpired()) {
+                // Nothing new, wait for the next change
+                continuation.setTimeout(timeout);
+                continuation.suspend();
+                waiting.add(continuation);
+                return;
+            }
+            waiting.remove(continuation);
+            json = toJSON(since);
+        }
+        response.setContentType("application/json;charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().print(json);
+    }
+
+    /**
+     * Computes the response for a client which has seen the given version.
+     */
+    private String toJSON(long since) {
+        Set<String> files = new LinkedHashSet<String>();
+        if (since > version || (since >= 0 && since < version
+                && (history.isEmpty() || history.getFirst().version > since + 1))) {
+            files.add("*");
+        } else if (since >= 0) {
+            for (Change change : history) {
+                if (change.version > since) {
+                    files.addAll(change.paths);
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"version\":").append(version).append(",\"files\":[");
+        boolean first = true;
+        for (String file : files) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append('"').append(file.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
+
+    private static class Change {
+        private final long version;
+        private final List<String> paths;
+
+        private Change(long version, Collection<String> paths) {
+            this.version = version;
+            this.paths = new ArrayList<String>(paths);
+        }
+    }
+}
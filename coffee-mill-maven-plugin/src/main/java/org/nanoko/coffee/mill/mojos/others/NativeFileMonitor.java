@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches directories using the file system notifications ({@link WatchService}) instead of polling.
+ * Directories are watched recursively: sub-directories created while watching are registered too.
+ *
+ * This class requires Java 7. The watch mode must fall back to polling if this class cannot be loaded
+ * ({@link LinkageError}) or if the watch service cannot be created.
+ */
+public class NativeFileMonitor implements Runnable {
+
+    /**
+     * Receives the file events.
+     */
+    public interface Listener {
+        void fileCreated(File file) throws Exception;
+
+        void fileUpdated(File file) throws Exception;
+
+        void fileDeleted(File file) throws Exception;
+    }
+
+    private final WatchService service;
+
+    private final Listener listener;
+
+    private final Log log;
+
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+
+    private Thread thread;
+
+    /**
+     * Creates the monitor.
+     *
+     * @param listener the listener
+     * @param log      the log
+     * @throws IOException if the watch service is not available
+     */
+    public NativeFileMonitor(Listener listener, Log log) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+        this.log = log;
+    }
+
+    /**
+     * Watches the given directory and its sub-directories.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory cannot be watched
+     */
+    public void addDirectory(File directory) throws IOException {
+        register(directory.toPath(), null);
+    }
+
+    /**
+     * Starts watching.
+     */
+    public synchronized void start() {
+        thread = new Thread(this, "coffee-mill-file-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching.
+     */
+    public synchronized void stop() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            log.debug("Cannot close the watch service", e);
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir;
+            synchronized (keys) {
+                dir = keys.get(key);
+            }
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    handle(dir, event);
+                }
+            }
+            if (!key.reset()) {
+                synchronized (keys) {
+                    keys.remove(key);
+                }
+            }
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            log.warn("Too many file changes, some events were lost");
+            return;
+        }
+        Path path = dir.resolve((Path) event.context());
+        File file = path.toFile();
+        try {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (Files.isDirectory(path)) {
+                    // Files may have been created before the registration
+                    List<Path> created = new ArrayList<Path>();
+                    register(path, created);
+                    for (Path child : created) {
+                        listener.fileCreated(child.toFile());
+                    }
+                } else {
+                    listener.fileCreated(file);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                if (!Files.isDirectory(path)) {
+                    listener.fileUpdated(file);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                listener.fileDeleted(file);
+            }
+        } catch (Exception e) {
+            log.error("Error while processing " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Registers a directory and its sub-directories.
+     *
+     * @param root  the directory
+     * @param files if not <code>null</code>, receives the files found in the directories
+     */
+    private void register(Path root, final List<Path> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (keys) {
+                    keys.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (files != null) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
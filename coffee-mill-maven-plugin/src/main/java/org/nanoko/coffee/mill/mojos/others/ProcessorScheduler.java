@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.maven.plugin.logging.Log;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.processors.FileSet;
+import org.nanoko.coffee.mill.processors.Processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the processors of the watch mode according to their dependencies. A processor depends on another one if it
+ * reads the files written by the other one (see {@link Processor#getInputs()} and {@link Processor#getOutputs()}).
+ *
+ * When a burst of changes is processed, the files written by a processor are given directly to the processors
+ * depending on it, without waiting for the file monitor. Processors without dependency between them (Less,
+ * CoffeeScript, image optimization...) run concurrently. The work directories are not watched, so the files written
+ * by the processors reach the other processors only through the scheduler.
+ *
+ * If processors depend on each other, the first one in the list is run first.
+ */
+public class ProcessorScheduler {
+
+    /**
+     * The processors in dependency order.
+     */
+    private final List<Processor> ordered = new ArrayList<Processor>();
+
+    private final Map<Processor, List<Processor>> predecessors = new HashMap<Processor, List<Processor>>();
+
+    private final ExecutorService executor;
+
+    private final Log log;
+
+    /**
+     * Creates the scheduler and computes the dependencies between the processors.
+     *
+     * @param processors the processors, configured
+     * @param log        the log
+     */
+    public ProcessorScheduler(List<Processor> processors, Log log) {
+        this.log = log;
+        for (Processor processor : processors) {
+            predecessors.put(processor, new ArrayList<Processor>());
+        }
+        for (Processor processor : processors) {
+            for (Processor candidate : processors) {
+                if (candidate != processor && readsOutputOf(processor, candidate)
+                        && !dependsOn(candidate, processor)) {
+                    predecessors.get(processor).add(candidate);
+                }
+            }
+        }
+        Set<Processor> visited = new HashSet<Processor>();
+        for (Processor processor : processors) {
+            sort(processor, visited);
+        }
+        // Each processor gets its own thread, so waiting for the predecessors cannot starve the pool.
+        this.executor = Executors.newFixedThreadPool(Math.max(1, processors.size()), new SchedulerThreadFactory());
+    }
+
+    /**
+     * Gets the processors the given processor directly depends on.
+     *
+     * @param processor the processor
+     * @return the predecessors
+     */
+    public List<Processor> getPredecessors(Processor processor) {
+        return Collections.unmodifiableList(predecessors.get(processor));
+    }
+
+    private static boolean readsOutputOf(Processor reader, Processor writer) {
+        for (FileSet output : writer.getOutputs()) {
+            for (FileSet input : reader.getInputs()) {
+                if (output.overlaps(input)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean dependsOn(Processor processor, Processor ancestor) {
+        for (Processor predecessor : predecessors.get(processor)) {
+            if (predecessor == ancestor || dependsOn(predecessor, ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sort(Processor processor, Set<Processor> visited) {
+        if (visited.add(processor)) {
+            for (Processor predecessor : predecessors.get(processor)) {
+                sort(predecessor, visited);
+            }
+            ordered.add(processor);
+        }
+    }
+
+    /**
+     * Processes a burst of changes, and waits until all the processors are done.
+     *
+     * @param changes the changes
+     * @return the changes of the burst and the changes of the files written by the processors
+     */
+    public ChangeSet process(final ChangeSet burst) {
+        if (burst.isEmpty()) {
+            return burst;
+        }
+
+        final Set<File> accepted = Collections.synchronizedSet(new HashSet<File>());
+        final Map<Processor, Future<ChangeSet>> results = new LinkedHashMap<Processor, Future<ChangeSet>>();
+        // Predecessors are submitted first
+        for (final Processor processor : ordered) {
+            final List<Future<ChangeSet>> inputs = new ArrayList<Future<ChangeSet>>();
+            for (Processor predecessor : predecessors.get(processor)) {
+                inputs.add(results.get(predecessor));
+            }
+            results.put(processor, executor.submit(new Callable<ChangeSet>() {
+                public ChangeSet call() throws Exception {
+                    ChangeSet changes = burst.filter(processor);
+                    accepted.addAll(changes.getFiles());
+                    for (Future<ChangeSet> input : inputs) {
+                        changes.addAll(input.get().filter(processor));
+                    }
+                    if (changes.isEmpty()) {
+                        return new ChangeSet();
+                    }
+                    try {
+                        return processor.filesChanged(changes);
+                    } catch (Processor.ProcessorException e) {
+                        log.error("", e);
+                    } catch (RuntimeException e) {
+                        log.error("Error while processing " + changes, e);
+                    }
+                    return new ChangeSet();
+                }
+            }));
+        }
+
+        ChangeSet outputs = new ChangeSet();
+        for (Future<ChangeSet> result : results.values()) {
+            try {
+                outputs.addAll(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return burst;
+            } catch (ExecutionException e) {
+                log.error("Error while processing " + burst, e.getCause());
+            }
+        }
+        for (File file : burst.getFiles()) {
+            if (!accepted.contains(file)) {
+                log.info("Nothing to do for " + file.getName());
+            }
+        }
+
+        ChangeSet all = new ChangeSet();
+        all.addAll(burst);
+        all.addAll(outputs);
+        return all;
+    }
+
+    /**
+     * Stops the threads running the processors.
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private static class SchedulerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "coffee-mill-processor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
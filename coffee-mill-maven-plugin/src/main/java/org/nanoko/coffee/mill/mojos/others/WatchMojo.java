@@ -27,13 +27,18 @@ import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.processors.*;
 import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.OutputStore;
 import org.nanoko.coffee.mill.utils.ReactorUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This mojo watches the file change in the source directories and process them automatically.
@@ -46,9 +51,17 @@ import java.util.Map;
  * project.
  *
  * You can configure the watched port with the <tt>-Dwatch.port=8234</tt> option. By default the used port is 8234.
+ * Pages including <tt>/livereload.js</tt> are notified of the changed files: updated stylesheets are swapped, and
+ * the page is reloaded when other files change.
+ *
+ * Only the source directories are watched. File changes are notified by the file system if the JVM supports it
+ * (Java 7+), otherwise the directories are polled. Changes are processed by bursts: the processors are triggered
+ * once the files did not change for <tt>watchQuietPeriod</tt> milliseconds. The files written by a processor are
+ * passed to the following processors by the scheduler.
  * @goal watch
  */
-public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
+public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener, NativeFileMonitor.Listener,
+        ChangeQueue.Listener {
 
     /**
      * The maven session.
@@ -143,6 +156,75 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
      */
     protected int optiPngOptimizationLevel;
 
+    /**
+     * The time in milliseconds without file change ending a burst of changes. The changes of a burst are processed
+     * at once.
+     * @parameter default-value="150" expression="${watch.quietPeriod}"
+     */
+    protected long watchQuietPeriod;
+
+    /**
+     * The number of threads used by the CoffeeScript, Less and Dust processors to compile a burst of changes.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    protected int compileThreads;
+
+    /**
+     * The queue collecting the file changes.
+     */
+    protected ChangeQueue queue;
+
+    /**
+     * Runs the processors when files change.
+     */
+    protected ProcessorScheduler scheduler;
+
+    /**
+     * Pushes the changes to the browsers, <code>null</code> if the server is not started.
+     */
+    protected volatile LiveReloadHandler liveReload;
+
+    /**
+     * The handlers serving the directories, their cache is invalidated when files change.
+     */
+    protected final List<DirectoryHandler> directoryHandlers = new CopyOnWriteArrayList<DirectoryHandler>();
+
+    /**
+     * Serves the Jasmine runner, <code>null</code> if the server is not started.
+     */
+    protected volatile JasmineHandler jasmineHandler;
+
+    /**
+     * Runs the Jasmine specs affected by the changes in a headless browser, and prints the results. Requires the
+     * Jetty server.
+     * @parameter default-value="false" expression="${watch.runTests}"
+     */
+    protected boolean watchRunTests;
+
+    /**
+     * Runs the specs when files change, <code>null</code> if disabled.
+     */
+    protected volatile WatchTestRunner testRunner;
+
+    /**
+     * Keeps the files produced by the processors in memory instead of writing them to the disk. The Jetty server
+     * serves them from memory. The image optimization and the HTML compression still work on the disk.
+     * @parameter default-value="false" expression="${watch.inMemory}"
+     */
+    protected boolean watchInMemory;
+
+    /**
+     * When the files are kept in memory, whether they are also written to the disk by a background thread.
+     * @parameter default-value="true" expression="${watch.writeBehind}"
+     */
+    protected boolean watchWriteBehind;
+
+    /**
+     * The store keeping the produced files, shared with the watchers of the other projects. <code>null</code> if
+     * the files are written to the disk.
+     */
+    protected OutputStore outputStore;
+
 
 
     public void execute() throws MojoExecutionException, MojoFailureException {
@@ -156,34 +238,42 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
             return;
         }
 
+        if (watchInMemory) {
+            outputStore = new OutputStore(watchWriteBehind, getLog());
+        }
         processors = new ArrayList<Processor>();
         computeProcessors(this, processors);
+        queue = new ChangeQueue(this, watchQuietPeriod, getLog());
 
 
         try {
-            setupMonitor(project);
+            setupMonitor(this);
         } catch (FileSystemException e) {
             throw new MojoExecutionException("Cannot set the file monitor on the source folder", e);
         }
 
         // Starts all others process and monitors on the others project
         for (WatchMojo watcher : ReactorUtils.getWatchersFromSession(session)) {
+            watcher.outputStore = outputStore;
             computeProcessors(watcher, processors);
             DefaultProcessor proc = new FinalArtifactProcessor(this, watcher);
             proc.configure(this, null);
             processors.add(proc);
             try {
-                setupMonitor(watcher.project);
+                setupMonitor(watcher);
             } catch (FileSystemException e) {
                 throw new MojoExecutionException("Cannot set the file monitor on the source folder", e);
             }
         }
 
+        scheduler = new ProcessorScheduler(processors, getLog());
+
         String MESSAGE = "You're running the watch mode. All modified files will be processed " +
                 "automatically. \n" +
                 "If the jetty server is enabled, they will also be served from http://localhost:" +
                 watchJettyServerPort + "/. \n" +
                 "The jasmine runner is available from http://localhost:" + watchJettyServerPort + "/jasmine. \n" +
+                "Add <script src=\"/livereload.js\"></script> to your pages to reload them automatically. \n" +
                 "To leave the watch mode, just hit CTRL+C.\n";
         getLog().info(MESSAGE);
 
@@ -194,6 +284,8 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
                 getLog().error("", e);
             }
         }
+        // Changes detected during the initial processing are delivered now
+        queue.start();
 
         if (watchRunServer) {
             try {
@@ -205,6 +297,9 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
                 throw new MojoExecutionException("Cannot run the jetty server", e);
             }
         } else {
+            if (watchRunTests) {
+                getLog().warn("The Jasmine specs are not run automatically, the Jetty server is disabled");
+            }
             try {
                 Thread.sleep(1000000000); // Pretty long
             } catch (InterruptedException e) { /* ignore */ }
@@ -236,26 +331,26 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
         // Less
         if (watchLess) {
             processor = new LessCompilationProcessor();
-            processor.configure(mojo, null);
+            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("threads", compileThreads).build());
             processors.add(processor);
         }
 
         // CoffeeScript
         if (watchCoffeeScript) {
             processor = new CoffeeScriptCompilationProcessor();
-            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("test",
-                    false).build());
+            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("test", false)
+                    .set("threads", compileThreads).build());
             processors.add(processor);
 
             processor = new CoffeeScriptCompilationProcessor();
-            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("test",
-                    true).build());
+            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("test", true)
+                    .set("threads", compileThreads).build());
             processors.add(processor);
         }
 
         if (watchDust) {
             processor = new DustJSProcessor();
-            processor.configure(mojo, null);
+            processor.configure(mojo, new OptionsHelper.OptionsBuilder().set("threads", compileThreads).build());
             processors.add(processor);
         }
 
@@ -267,6 +362,7 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
             options.put("output", output);
             options.put("names", mojo.javascriptAggregation);
             options.put("extension", "js");
+            options.put("sourceMap", mojo.sourceMaps);
             processor.configure(mojo, options);
             processors.add(processor);
 
@@ -276,6 +372,7 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
             options.put("output", output);
             options.put("names", mojo.cssAggregation);
             options.put("extension", "css");
+            options.put("sourceMap", mojo.sourceMaps);
             processor.configure(mojo, options);
             processors.add(processor);
         }
@@ -332,15 +429,44 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
     }
 
 
-    private void setupMonitor(MavenProject project) throws FileSystemException {
-        File baseDir = project.getBasedir();
-        getLog().info("Set up file monitor on " + baseDir);
-        FileSystemManager fsManager = VFS.getManager();
-        FileObject dir = fsManager.resolveFile(baseDir.getAbsolutePath());
+    /**
+     * Gets the directories to watch for the given mojo: the source directories only. The files produced by the
+     * processors in the work directories are passed to the other processors (aggregation...) by the
+     * {@link ProcessorScheduler}.
+     */
+    private List<File> getWatchedDirectories(AbstractCoffeeMillMojo mojo) {
+        List<File> directories = new ArrayList<File>();
+        for (File dir : new File[]{mojo.javaScriptDir, mojo.javaScriptTestDir, mojo.coffeeScriptDir,
+                mojo.coffeeScriptTestDir, mojo.stylesheetsDir, mojo.assetsDir}) {
+            if (dir != null && dir.isDirectory() && !directories.contains(dir.getAbsoluteFile())) {
+                directories.add(dir.getAbsoluteFile());
+            }
+        }
+        return directories;
+    }
+
+    private void setupMonitor(AbstractCoffeeMillMojo mojo) throws FileSystemException {
+        List<File> directories = getWatchedDirectories(mojo);
+        getLog().info("Set up file monitor on " + directories);
+        try {
+            NativeFileMonitor monitor = new NativeFileMonitor(this, getLog());
+            for (File dir : directories) {
+                monitor.addDirectory(dir);
+            }
+            monitor.start();
+            return;
+        } catch (LinkageError e) {
+            getLog().info("File system notifications not supported, polling the directories");
+        } catch (IOException e) {
+            getLog().info("File system notifications not available, polling the directories - " + e.getMessage());
+        }
 
+        FileSystemManager fsManager = VFS.getManager();
         DefaultFileMonitor fm = new DefaultFileMonitor(this);
         fm.setRecursive(true);
-        fm.addFile(dir);
+        for (File dir : directories) {
+            fm.addFile(fsManager.resolveFile(dir.getAbsolutePath()));
+        }
         fm.start();
     }
 
@@ -350,12 +476,21 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
         server.addConnector(connector);
     }
 
-    private void addHandlersToServer() {
+    private void addHandlersToServer() throws MalformedURLException {
         HandlerList list = new HandlerList();
-        list.addHandler(new DirectoryHandler(getWorkDirectory()));
-        list.addHandler(new DirectoryHandler(getLibDirectory()));
-        list.addHandler(new DirectoryHandler(getWorkTestDirectory()));
-        list.addHandler(new JasmineHandler(this));
+        liveReload = new LiveReloadHandler();
+        list.addHandler(liveReload);
+        for (File directory : new File[]{getWorkDirectory(), getLibDirectory(), getWorkTestDirectory()}) {
+            DirectoryHandler handler = new DirectoryHandler(directory, outputStore);
+            directoryHandlers.add(handler);
+            list.addHandler(handler);
+        }
+        jasmineHandler = new JasmineHandler(this);
+        list.addHandler(jasmineHandler);
+        if (watchRunTests) {
+            URL runner = new URL("http://localhost:" + watchJettyServerPort + JasmineHandler.HEADLESS_RUNNER);
+            testRunner = new WatchTestRunner(this, jasmineHandler, runner, 300);
+        }
         server.setHandler(list);
     }
 
@@ -365,53 +500,93 @@ public class WatchMojo extends AbstractCoffeeMillMojo implements FileListener {
     }
 
     public void fileCreated(FileChangeEvent event) throws Exception {
-        getLog().info("New file found " + event.getFile().getName().getBaseName());
-        boolean processed = false;
-        String path = event.getFile().getName().getPath();
-        File theFile = new File(path);
-        for (Processor processor : processors) {
-            if (processor.accept(theFile)) {
-                processed = true;
-                processor.fileCreated(theFile);
-            }
-        }
-
-        if (! processed) {
-            getLog().info("Nothing to do for " + event.getFile().getName().getBaseName());
-        }
+        fileCreated(new File(event.getFile().getName().getPath()));
     }
 
     public void fileDeleted(FileChangeEvent event) throws Exception {
-        getLog().info("File " + event.getFile().getName().getBaseName() + " deleted");
-        boolean processed = false;
-        String path = event.getFile().getName().getPath();
-        File theFile = new File(path);
-        for (Processor processor : processors) {
-            if (processor.accept(theFile)) {
-                processed = true;
-                processor.fileDeleted(theFile);
+        fileDeleted(new File(event.getFile().getName().getPath()));
+    }
+
+    public void fileChanged(FileChangeEvent event) throws Exception {
+        fileUpdated(new File(event.getFile().getName().getPath()));
+    }
+
+    public void fileCreated(File theFile) {
+        getLog().debug("New file found " + theFile.getName());
+        queue.add(theFile, ChangeSet.Kind.CREATED);
+    }
+
+    public void fileDeleted(File theFile) {
+        getLog().debug("File " + theFile.getName() + " deleted");
+        queue.add(theFile, ChangeSet.Kind.DELETED);
+    }
+
+    public void fileUpdated(File theFile) {
+        getLog().debug("File changed: " + theFile.getName());
+        queue.add(theFile, ChangeSet.Kind.UPDATED);
+    }
+
+    /**
+     * Runs the processors on a burst of changes, and notifies the browsers of the changes of the served files.
+     *
+     * @param changes the changes
+     */
+    public void changesDetected(ChangeSet changes) {
+        if (outputStore != null) {
+            changes = removeStoreWrites(changes);
+            if (changes.isEmpty()) {
+                return;
             }
         }
-
-        if (! processed) {
-            getLog().info("Nothing to do for " + event.getFile().getName().getBaseName());
+        getLog().info(changes.size() + " file(s) changed");
+        ChangeSet changed = scheduler.process(changes);
+        for (DirectoryHandler handler : directoryHandlers) {
+            handler.invalidate(changed.getFiles());
+        }
+        if (jasmineHandler != null) {
+            jasmineHandler.filesChanged(changed);
+        }
+        if (testRunner != null && server.isStarted()) {
+            testRunner.run(changed);
+        }
+        if (liveReload != null) {
+            liveReload.publish(getServedPaths(changed));
         }
     }
 
-    public void fileChanged(FileChangeEvent event) throws Exception {
-        getLog().info("File changed: " + event.getFile().getName().getBaseName());
-        boolean processed = false;
-        String path = event.getFile().getName().getPath();
-        File theFile = new File(path);
-        for (Processor processor : processors) {
-            if (processor.accept(theFile)) {
-                processed = true;
-                processor.fileUpdated(theFile);
+    /**
+     * Removes the changes caused by the store writing its files to the disk, they were already processed.
+     */
+    private ChangeSet removeStoreWrites(ChangeSet changes) {
+        ChangeSet result = new ChangeSet();
+        for (File file : changes.getFiles()) {
+            if (!outputStore.isWrittenByStore(file)) {
+                result.add(file, changes.getKind(file));
             }
         }
+        return result;
+    }
 
-        if (! processed) {
-            getLog().info("Nothing to do for " + event.getFile().getName().getBaseName());
+    @Override
+    public OutputStore getOutputStore() {
+        return outputStore;
+    }
+
+    /**
+     * Computes the URL paths of the changed files served by the Jetty server.
+     */
+    private List<String> getServedPaths(ChangeSet changes) {
+        List<String> paths = new ArrayList<String>();
+        for (File file : changes.getFiles()) {
+            for (File root : new File[]{getWorkDirectory(), getLibDirectory(), getWorkTestDirectory()}) {
+                String prefix = root == null ? null : root.getAbsolutePath() + File.separator;
+                if (prefix != null && file.getAbsolutePath().startsWith(prefix)) {
+                    String path = file.getAbsolutePath().substring(prefix.length());
+                    paths.add("/" + path.replace(File.separatorChar, '/'));
+                    break;
+                }
+            }
         }
+        return paths;
     }
 }
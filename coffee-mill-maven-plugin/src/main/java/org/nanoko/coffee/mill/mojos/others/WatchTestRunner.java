@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import com.github.searls.jasmine.model.JasmineResult;
+import com.github.searls.jasmine.runner.ReporterType;
+import org.apache.maven.plugin.logging.Log;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.utils.JasmineBrowser;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the Jasmine specs affected by a burst of changes in a headless browser, and prints the results on the
+ * console. The browser is kept alive for the whole watch session.
+ *
+ * The specs of a source file are found by naming convention: the specs of <tt>foo/bar.js</tt> are the spec files
+ * named <tt>barSpec.js</tt>, <tt>bar-spec.js</tt>, <tt>bar_spec.js</tt>, <tt>bar.spec.js</tt> (or <tt>Test</tt>
+ * instead of <tt>Spec</tt>). A modified spec is run, and all the specs are run when a modified source does not
+ * have a spec.
+ */
+public class WatchTestRunner {
+
+    private static final List<String> SUFFIXES = Arrays.asList("spec", "-spec", "_spec", ".spec", "test", "-test",
+            "_test", ".test");
+
+    private final WatchMojo mojo;
+
+    private final JasmineHandler handler;
+
+    private final URL runner;
+
+    private final int timeout;
+
+    private final JasmineBrowser browser;
+
+    private final Log log;
+
+    /**
+     * Creates the runner.
+     *
+     * @param mojo    the watch mojo
+     * @param handler the handler serving the runners
+     * @param runner  the URL of {@link JasmineHandler#HEADLESS_RUNNER}
+     * @param timeout the maximum duration of a run in seconds
+     */
+    public WatchTestRunner(WatchMojo mojo, JasmineHandler handler, URL runner, int timeout) {
+        this.mojo = mojo;
+        this.handler = handler;
+        this.runner = runner;
+        this.timeout = timeout;
+        this.log = mojo.getLog();
+        this.browser = new JasmineBrowser(log);
+    }
+
+    /**
+     * Runs the specs affected by the given changes.
+     *
+     * @param changes the changes, including the files written by the processors
+     */
+    public void run(ChangeSet changes) {
+        Set<String> specs = getAffectedSpecs(changes);
+        if (specs.isEmpty()) {
+            return;
+        }
+        log.info("Running " + specs.size() + " Jasmine spec file(s)");
+        long begin = System.currentTimeMillis();
+        try {
+            handler.setHeadlessRunner(handler.getGenerator().generate(specs, ReporterType.JsApiReporter));
+            JasmineResult result = browser.run(runner, null, timeout, "progress");
+            if (result.didPass()) {
+                log.info(result.getDetails());
+            } else {
+                log.error(result.getDetails());
+            }
+            log.info("Jasmine specs executed in " + (System.currentTimeMillis() - begin) + " ms");
+        } catch (Exception e) {
+            log.error("Cannot run the Jasmine specs", e);
+        }
+    }
+
+    /**
+     * Computes the specs to run for the given changes.
+     *
+     * @param changes the changes
+     * @return the paths of the specs, relative to the server root
+     */
+    public Set<String> getAffectedSpecs(ChangeSet changes) {
+        Set<String> all = handler.getGenerator().getSpecs();
+        Set<String> affected = new LinkedHashSet<String>();
+        File aggregate = new File(mojo.getWorkDirectory(), mojo.project.getBuild().getFinalName() + ".js");
+        for (File file : changes.getFiles()) {
+            if (!file.getName().endsWith(".js") || file.getAbsoluteFile().equals(aggregate.getAbsoluteFile())) {
+                continue;
+            }
+            String spec = toPath(mojo.getWorkTestDirectory(), file);
+            if (spec != null) {
+                if (all.contains(spec)) {
+                    affected.add(spec);
+                }
+            } else if (toPath(mojo.getWorkDirectory(), file) != null) {
+                Set<String> specs = getSpecsOf(file, all);
+                if (specs.isEmpty()) {
+                    // Cannot know which specs use this file
+                    return all;
+                }
+                affected.addAll(specs);
+            }
+        }
+        return affected;
+    }
+
+    private static Set<String> getSpecsOf(File source, Set<String> specs) {
+        String base = source.getName().substring(0, source.getName().length() - ".js".length()).toLowerCase();
+        Set<String> result = new LinkedHashSet<String>();
+        for (String spec : specs) {
+            String name = spec.substring(spec.lastIndexOf('/') + 1).toLowerCase();
+            name = name.substring(0, name.length() - ".js".length());
+            if (name.startsWith(base) && SUFFIXES.contains(name.substring(base.length()))) {
+                result.add(spec);
+            }
+        }
+        return result;
+    }
+
+    private static String toPath(File directory, File file) {
+        if (directory == null) {
+            return null;
+        }
+        String prefix = directory.getAbsolutePath() + File.separator;
+        if (!file.getAbsolutePath().startsWith(prefix)) {
+            return null;
+        }
+        return "/" + file.getAbsolutePath().substring(prefix.length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Stops the headless browser.
+     */
+    public void stop() {
+        browser.quit();
+    }
+}
@@ -63,6 +63,7 @@ public class JavaScriptAggregatorMojo extends AbstractCoffeeMillMojo {
         options.put("output", output);
         options.put("names", javascriptAggregation);
         options.put("extension", "js");
+        options.put("sourceMap", sourceMaps);
         aggregator.configure(this, options);
         try {
             aggregator.processAll();
@@ -75,6 +76,9 @@ public class JavaScriptAggregatorMojo extends AbstractCoffeeMillMojo {
                 File artifact = new File(getTarget(), project.getBuild().getFinalName() + ".js");
                 getLog().info("Copying " + output.getAbsolutePath() + " to the " + artifact.getAbsolutePath());
                 FileUtils.copyFile(output, artifact, true);
+                if (aggregator.getSourceMap() != null) {
+                    aggregator.getSourceMap().write(new File(getTarget(), artifact.getName() + ".map"), artifact);
+                }
                 project.getArtifact().setFile(artifact);
             } catch (IOException e) {
                 throw new MojoExecutionException("Cannot copy the aggregated file to the target folder", e);
@@ -15,26 +15,54 @@
 
 package org.nanoko.coffee.mill.mojos.packaging;
 
+import com.google.debugging.sourcemap.FilePosition;
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.SourceMapGeneratorV3;
+import com.google.debugging.sourcemap.SourceMapParseException;
+import com.google.debugging.sourcemap.proto.Mapping;
 import com.google.javascript.jscomp.*;
 import com.google.javascript.jscomp.Compiler;
 import com.yahoo.platform.yui.compressor.JavaScriptCompressor;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.StringUtils;
 import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.EvaluatorException;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.processors.JavaScriptAggregator;
+import org.nanoko.coffee.mill.processors.Processor;
+import org.nanoko.coffee.mill.utils.AggregateSourceMap;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.MinificationCache;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.WorkerPool;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Minify JavaScript sources.
  * It can use Google Closure or YUI Compressor.
  * The minified file is attached to the project using the <tt>min</tt> classifier,
- * except if the <tt>attachMinifiedJavaScript</tt> parameter is set to <tt>false</tt>
+ * except if the <tt>attachMinifiedJavaScript</tt> parameter is set to <tt>false</tt>.
+ * With Google Closure, a source map is generated if source maps are enabled. If the minified file has a source
+ * map (generated during the aggregation), both maps are combined, so the minified file is mapped to the original
+ * sources.
+ * With <tt>minifierPerFile</tt>, the aggregated files are minified separately, concurrently, and cached, so
+ * repeated builds only minify the modified files.
  * @goal minify-javascript
  */
 public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
@@ -99,6 +127,37 @@ public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
      */
     protected CompilationLevel minifierGoogleCompilationLevel;
 
+    /**
+     * Minifies each aggregated file separately instead of the aggregated artifact, and concatenates the minified
+     * files in the aggregation order. Files are minified concurrently (see <tt>compileThreads</tt>) and cached by
+     * content (if incremental builds are enabled or a cache directory is set), so only the modified files are
+     * minified again. With Google Closure, this mode is ignored with ADVANCED_OPTIMIZATIONS, which needs the whole
+     * program.
+     * @parameter default-value="false" expression="${minifier.perFile}"
+     */
+    protected boolean minifierPerFile;
+
+    /**
+     * The number of threads used to minify the files when they are minified separately.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    protected int compileThreads;
+
+    /**
+     * The directory caching the files minified separately, <tt>target/coffee-mill-cache/minified</tt> by default.
+     * A directory outside of the build directory (such as <tt>${user.home}/.coffee-mill/minified</tt>) survives
+     * <tt>mvn clean</tt>, so libraries are minified only once.
+     * @parameter expression="${minifier.cacheDirectory}"
+     */
+    protected File minifierCacheDirectory;
+
+    /**
+     * The aggregation order of the JavaScript files (see the <tt>aggregate-javascript</tt> goal), used when the
+     * files are minified separately.
+     * @parameter
+     */
+    protected List<String> javascriptAggregation;
+
     public enum Minifier {
         GOOGLE_CLOSURE,
         YUI_COMPRESSOR
@@ -118,7 +177,13 @@ public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
 
         File output = new File(getTarget(), project.getBuild().getFinalName() + "-min.js");
 
-        if (Minifier.GOOGLE_CLOSURE.equals(minifier)) {
+        if (minifierPerFile && (Minifier.YUI_COMPRESSOR.equals(minifier)
+                || minifierGoogleCompilationLevel != CompilationLevel.ADVANCED_OPTIMIZATIONS)) {
+            doPerFileCompression(output);
+        } else if (Minifier.GOOGLE_CLOSURE.equals(minifier)) {
+            if (minifierPerFile) {
+                getLog().info("ADVANCED_OPTIMIZATIONS needs the whole program - minifying the aggregated file");
+            }
             doGoogleCompression(project.getArtifact().getFile(), output);
         } else if (Minifier.YUI_COMPRESSOR.equals(minifier)) {
             doYUICompression(project.getArtifact().getFile(), output);
@@ -140,6 +205,12 @@ public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
         CompilerOptions options = newCompilerOptions();
         getLog().info("Compilation Level set to " + minifierGoogleCompilationLevel);
         minifierGoogleCompilationLevel.setOptionsForCompilationLevel(options);
+        File map = new File(output.getParentFile(), output.getName() + ".map");
+        if (sourceMaps) {
+            options.setSourceMapOutputPath(map.getAbsolutePath());
+            options.setSourceMapFormat(SourceMap.Format.V3);
+            options.setSourceMapDetailLevel(SourceMap.DetailLevel.ALL);
+        }
 
         final JSSourceFile[] input = new JSSourceFile[] {
                 JSSourceFile.fromFile(file)
@@ -150,7 +221,12 @@ public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
         final Result result = compiler.compile(externs, input, options);
         if (result.success) {
             try {
-                FileUtils.write(output, compiler.toSource());
+                if (sourceMaps) {
+                    FileUtils.write(output, compiler.toSource() + "\n//# sourceMappingURL=" + map.getName() + "\n");
+                    writeSourceMap(compiler, file, output, map);
+                } else {
+                    FileUtils.write(output, compiler.toSource());
+                }
             } catch (IOException e) {
                 throw new MojoExecutionException("Cannot write minified file", e);
             }
@@ -163,6 +239,242 @@ public class JavaScriptMinifierMojo extends AbstractCoffeeMillMojo {
 
     }
 
+    /**
+     * Minifies the aggregated files separately, and concatenates them. Files are minified concurrently, unless
+     * their minified version (and source map) is in the cache. The source maps of the files are shifted and merged.
+     */
+    private void doPerFileCompression(File output) throws MojoExecutionException {
+        File aggregate = new File(getWorkDirectory(), project.getBuild().getFinalName() + ".js");
+        List<File> files;
+        try {
+            JavaScriptAggregator aggregator = new JavaScriptAggregator();
+            aggregator.configure(this, new OptionsHelper.OptionsBuilder().set("output", aggregate)
+                    .set("extension", "js").set("names", javascriptAggregation).build());
+            files = aggregator.computeFileList(javascriptAggregation, getWorkDirectory(), getLibDirectory(), "js",
+                    true);
+        } catch (Processor.ProcessorException e) {
+            throw new MojoExecutionException("Cannot compute the list of files to minify", e);
+        }
+        files.remove(aggregate);
+
+        final boolean withMap = sourceMaps && Minifier.GOOGLE_CLOSURE.equals(minifier);
+        final MinificationCache cache = getMinificationCache(withMap);
+        getLog().info("Compressing " + files.size() + " files separately using " + minifier + " with "
+                + compileThreads + " thread(s)");
+        final File directory = output.getParentFile();
+        final AtomicInteger compiled = new AtomicInteger();
+        List<Future<String[]>> results = new ArrayList<Future<String[]>>();
+        ExecutorService executor = compileThreads > 1 ? WorkerPool.get(compileThreads) : null;
+        for (final File file : files) {
+            Callable<String[]> task = new Callable<String[]>() {
+                public String[] call() throws IOException {
+                    String name = AggregateSourceMap.relativize(directory, file);
+                    String code = FileUtils.readFileToString(file);
+                    // The source name is in the source map, so it is part of the key.
+                    String hash = HashUtils.sha1(withMap ? name + "\n" + code : code);
+                    String js = cache == null ? null : cache.get(hash, ".js");
+                    String map = cache == null || !withMap ? null : cache.get(hash, ".js.map");
+                    if (js != null && (!withMap || map != null)) {
+                        return new String[] {js, map};
+                    }
+                    compiled.incrementAndGet();
+                    String[] result = minifyFile(name, code, withMap);
+                    if (result != null && cache != null) {
+                        cache.put(hash, ".js", result[0]);
+                        if (withMap) {
+                            cache.put(hash, ".js.map", result[1]);
+                        }
+                    }
+                    return result;
+                }
+            };
+            if (executor == null) {
+                FutureTask<String[]> future = new FutureTask<String[]>(task);
+                future.run();
+                results.add(future);
+            } else {
+                results.add(executor.submit(task));
+            }
+        }
+
+        File map = new File(directory, output.getName() + ".map");
+        StringBuilder minified = new StringBuilder();
+        SourceMapGeneratorV3 generator = withMap ? new SourceMapGeneratorV3() : null;
+        int line = 0;
+        boolean failed = false;
+        try {
+            for (Future<String[]> future : results) {
+                String[] result = future.get();
+                if (result == null) {
+                    failed = true;
+                    continue;
+                }
+                String js = result[0];
+                if (generator != null) {
+                    shiftSourceMap(result[1], line, generator);
+                }
+                minified.append(js);
+                if (js.length() > 0 && !js.endsWith(";")) {
+                    // Terminates the last statement, as the aggregation separator does.
+                    minified.append(';');
+                }
+                minified.append('\n');
+                line += StringUtils.countMatches(js, "\n") + 1;
+            }
+            if (failed) {
+                throw new MojoExecutionException("The minification failed - check log");
+            }
+            getLog().info(compiled.get() + " file(s) minified, " + (files.size() - compiled.get())
+                    + " file(s) unchanged");
+
+            if (generator != null) {
+                minified.append("//# sourceMappingURL=").append(map.getName()).append("\n");
+                StringBuilder json = new StringBuilder();
+                generator.appendTo(json, output.getName());
+                FileUtils.write(map, json.toString());
+            }
+            FileUtils.write(output, minified.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("The minification was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Cannot minify the files", e.getCause());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot write minified file", e);
+        } catch (SourceMapParseException e) {
+            throw new MojoExecutionException("Cannot merge the source maps", e);
+        }
+    }
+
+    /**
+     * @return the cache of the files minified separately with the current settings, <code>null</code> if the
+     * minified files are not cached.
+     */
+    private MinificationCache getMinificationCache(boolean withMap) {
+        String settings;
+        if (Minifier.GOOGLE_CLOSURE.equals(minifier)) {
+            settings = minifierGoogleCompilationLevel + "|" + withMap;
+        } else {
+            settings = minifierYUIMunge + "|" + minifierYUIPreserveSemiColumn + "|" + minifierYUIDisableOptimizations;
+        }
+        String name = Minifier.GOOGLE_CLOSURE.equals(minifier) ? "closure" : "yui";
+        if (minifierCacheDirectory != null) {
+            return MinificationCache.inDirectory(minifierCacheDirectory, name, settings);
+        }
+        return MinificationCache.forMojo(this, name, settings);
+    }
+
+    /**
+     * Minifies a single file.
+     *
+     * @return the minified code and its source map (<code>null</code> without source map), <code>null</code> if
+     * the minification failed
+     */
+    private String[] minifyFile(String name, String code, boolean withMap) throws IOException {
+        getLog().debug("Compressing " + name);
+        if (Minifier.YUI_COMPRESSOR.equals(minifier)) {
+            YUIErrorReporter reporter = new YUIErrorReporter();
+            StringWriter writer = new StringWriter();
+            try {
+                JavaScriptCompressor compressor = new JavaScriptCompressor(new StringReader(code), reporter);
+                compressor.compress(writer, -1, minifierYUIMunge, minifierYUIVerbose, minifierYUIPreserveSemiColumn,
+                        minifierYUIDisableOptimizations);
+            } catch (EvaluatorException e) {
+                // Already reported
+                return null;
+            }
+            return reporter.errorFound ? null : new String[] {writer.toString(), null};
+        }
+
+        Compiler compiler = new Compiler();
+        CompilerOptions options = newCompilerOptions();
+        minifierGoogleCompilationLevel.setOptionsForCompilationLevel(options);
+        if (withMap) {
+            options.setSourceMapOutputPath(name + ".map");
+            options.setSourceMapFormat(SourceMap.Format.V3);
+            options.setSourceMapDetailLevel(SourceMap.DetailLevel.ALL);
+        }
+        compiler.initOptions(options);
+        Result result = compiler.compile(new JSSourceFile[0], new JSSourceFile[] {JSSourceFile.fromCode(name, code)},
+                options);
+        if (!result.success) {
+            for (JSError error : result.errors) {
+                getLog().error(error.sourceName + ":" + error.lineNumber + " - " + error.description);
+            }
+            return null;
+        }
+        // The source map is filled when the code is generated.
+        String js = compiler.toSource();
+        String map = null;
+        if (withMap) {
+            StringBuilder builder = new StringBuilder();
+            compiler.getSourceMap().appendTo(builder, name);
+            map = builder.toString();
+        }
+        return new String[] {js, map};
+    }
+
+    /**
+     * Adds the mappings of a file source map to the generator, shifted by the line of the file in the output.
+     */
+    private static void shiftSourceMap(String map, final int line, final SourceMapGeneratorV3 generator)
+            throws SourceMapParseException {
+        SourceMapConsumerV3 consumer = new SourceMapConsumerV3();
+        consumer.parse(map);
+        consumer.visitMappings(new SourceMapConsumerV3.EntryVisitor() {
+            public void visit(String sourceName, String symbolName, FilePosition sourceStartPosition,
+                              FilePosition startPosition, FilePosition endPosition) {
+                generator.addMapping(sourceName, symbolName, sourceStartPosition,
+                        new FilePosition(startPosition.getLine() + line, startPosition.getColumn()),
+                        new FilePosition(endPosition.getLine() + line, endPosition.getColumn()));
+            }
+        });
+    }
+
+    /**
+     * Writes the source map of the minified file. If the input has a source map, the Closure source map (from
+     * the minified file to the input) is combined with it, so the minified file is mapped to the original sources.
+     */
+    private void writeSourceMap(Compiler compiler, File input, File output, File map) throws IOException,
+            MojoExecutionException {
+        StringBuilder closureMap = new StringBuilder();
+        compiler.getSourceMap().appendTo(closureMap, output.getName());
+
+        File inputMap = new File(input.getParentFile(), input.getName() + ".map");
+        if (!inputMap.isFile()) {
+            FileUtils.write(map, closureMap.toString());
+            return;
+        }
+
+        getLog().info("Combining the source map of " + input.getName() + " with the Google Closure source map");
+        try {
+            SourceMapConsumerV3 minified = new SourceMapConsumerV3();
+            minified.parse(closureMap.toString());
+            final SourceMapConsumerV3 aggregate = new SourceMapConsumerV3();
+            aggregate.parse(FileUtils.readFileToString(inputMap));
+            final SourceMapGeneratorV3 generator = new SourceMapGeneratorV3();
+            minified.visitMappings(new SourceMapConsumerV3.EntryVisitor() {
+                public void visit(String sourceName, String symbolName, FilePosition sourceStartPosition,
+                                  FilePosition startPosition, FilePosition endPosition) {
+                    // Lines are 1-based in the consumer API, 0-based in the positions.
+                    Mapping.OriginalMapping original = aggregate.getMappingForLine(sourceStartPosition.getLine() + 1,
+                            sourceStartPosition.getColumn() + 1);
+                    if (original != null) {
+                        // The aggregate maps lines as is, so the column does not change.
+                        generator.addMapping(original.getOriginalFile(), symbolName,
+                                new FilePosition(original.getLineNumber() - 1, sourceStartPosition.getColumn()),
+                                startPosition, endPosition);
+                    }
+                }
+            });
+            StringBuilder combined = new StringBuilder();
+            generator.appendTo(combined, output.getName());
+            FileUtils.write(map, combined.toString());
+        } catch (SourceMapParseException e) {
+            throw new MojoExecutionException("Cannot combine the source maps", e);
+        }
+    }
+
     private void doYUICompression(File file, File output) throws MojoExecutionException {
         getLog().info("Compressing " + file.getName() + " using YUI Compressor");
         YUIErrorReporter reporter = new YUIErrorReporter();
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.packaging;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.WorkerPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzipped version (<tt>.gz</tt>) next to each text file of the work directory and next to the packaged
+ * text files of the target directory (<tt>-min.js</tt>, <tt>-min.css</tt>...), so web servers and CDNs serve the
+ * precompressed files (nginx <tt>gzip_static</tt>) instead of compressing them on each request.
+ * Files are compressed with the best compression level, concurrently. A <tt>.gz</tt> file newer than its source is
+ * kept, and files not getting smaller are not compressed.
+ * The <tt>.gz</tt> files of the target directory can be attached to the project, with the classifier of the
+ * compressed file and the <tt>.gz</tt> suffix in the type (<tt>js.gz</tt>...).
+ * The precompression is disabled by default, as the <tt>.gz</tt> files of the work directory are included in the
+ * zip built by <tt>build-zip</tt>. Enable it with <tt>-Dprecompress=true</tt>.
+ * @goal precompress
+ */
+public class PrecompressMojo extends AbstractCoffeeMillMojo {
+
+    /**
+     * The extensions of the compressed files.
+     */
+    public static final List<String> DEFAULT_EXTENSIONS = Arrays.asList("js", "css", "html", "htm", "json", "map",
+            "svg", "xml", "txt");
+
+    /**
+     * Enables / Disables the precompression. Disabled by default.
+     * @parameter default-value="false" expression="${precompress}"
+     */
+    protected boolean precompress;
+
+    /**
+     * The extensions of the files to compress. Defaults to js, css, html, htm, json, map, svg, xml and txt.
+     * @parameter
+     */
+    protected List<String> precompressExtensions;
+
+    /**
+     * The files smaller than this size (in bytes) are not compressed.
+     * @parameter default-value="256" expression="${precompress.minSize}"
+     */
+    protected long precompressMinSize;
+
+    /**
+     * Enables / Disables the attachment of the compressed files of the target directory to the Maven project.
+     * Disabled by default.
+     * @parameter default-value="false" expression="${precompress.attach}"
+     */
+    protected boolean attachPrecompressed;
+
+    /**
+     * The number of threads used to compress the files.
+     * @parameter default-value="1" expression="${compileThreads}"
+     */
+    protected int compileThreads;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!precompress) {
+            getLog().debug("Precompression disabled");
+            return;
+        }
+        List<String> extensions = precompressExtensions == null ? DEFAULT_EXTENSIONS : precompressExtensions;
+        String[] array = extensions.toArray(new String[extensions.size()]);
+        List<File> files = new ArrayList<File>();
+        if (getWorkDirectory().isDirectory()) {
+            files.addAll(FileUtils.listFiles(getWorkDirectory(), array, true));
+        }
+        // Only the packaged files, not the content of the sub-directories (work directory, caches...)
+        File[] packaged = getTarget().listFiles();
+        List<File> attachable = new ArrayList<File>();
+        if (packaged != null) {
+            for (File file : packaged) {
+                if (file.isFile() && extensions.contains(FilenameUtils.getExtension(file.getName()))) {
+                    files.add(file);
+                    attachable.add(file);
+                }
+            }
+        }
+
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        ExecutorService executor = compileThreads > 1 ? WorkerPool.get(compileThreads) : null;
+        for (final File file : files) {
+            Callable<long[]> task = new Callable<long[]>() {
+                public long[] call() throws IOException {
+                    return compress(file);
+                }
+            };
+            if (executor == null) {
+                FutureTask<long[]> future = new FutureTask<long[]>(task);
+                future.run();
+                results.add(future);
+            } else {
+                results.add(executor.submit(task));
+            }
+        }
+
+        long original = 0;
+        long compressed = 0;
+        int count = 0;
+        try {
+            for (Future<long[]> result : results) {
+                long[] sizes = result.get();
+                if (sizes != null) {
+                    original += sizes[0];
+                    compressed += sizes[1];
+                    count++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("The precompression was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Cannot precompress the files", e.getCause());
+        }
+        if (count > 0) {
+            getLog().info("Precompressed " + count + " file(s): " + original + " bytes to " + compressed
+                    + " bytes (" + ((original - compressed) * 100 / original) + "% saved)");
+        } else {
+            getLog().info("Nothing to precompress");
+        }
+
+        if (attachPrecompressed) {
+            attach(attachable);
+        }
+    }
+
+    /**
+     * Compresses a file, unless its compressed version is up to date.
+     *
+     * @param file the file
+     * @return the original and compressed sizes, <code>null</code> if the file is not compressed
+     * @throws IOException if the file cannot be compressed
+     */
+    private long[] compress(File file) throws IOException {
+        File gz = new File(file.getParentFile(), file.getName() + ".gz");
+        if (file.length() < precompressMinSize) {
+            return null;
+        }
+        if (gz.isFile() && gz.lastModified() >= file.lastModified()) {
+            getLog().debug(gz.getName() + " is up to date");
+            return new long[] {file.length(), gz.length()};
+        }
+
+        File tmp = new File(file.getParentFile(), gz.getName() + ".tmp");
+        InputStream in = new FileInputStream(file);
+        OutputStream out = null;
+        try {
+            out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+            IOUtils.copy(in, out);
+            out.close();
+            out = null;
+            if (tmp.length() >= file.length()) {
+                getLog().debug(file.getName() + " does not get smaller when compressed");
+                FileUtils.deleteQuietly(gz);
+                return null;
+            }
+            if (!tmp.renameTo(gz)) {
+                FileUtils.deleteQuietly(gz);
+                if (!tmp.renameTo(gz)) {
+                    throw new IOException("Cannot write " + gz.getAbsolutePath());
+                }
+            }
+            return new long[] {file.length(), gz.length()};
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Attaches the compressed version of the packaged files. The classifier of <tt>finalName-min.js</tt> is
+     * <tt>min</tt>, and its type <tt>js.gz</tt>.
+     */
+    private void attach(List<File> files) {
+        String prefix = project.getBuild().getFinalName();
+        for (File file : files) {
+            File gz = new File(file.getParentFile(), file.getName() + ".gz");
+            String name = file.getName();
+            if (!gz.isFile() || !name.startsWith(prefix)) {
+                continue;
+            }
+            String extension = FilenameUtils.getExtension(name);
+            String rest = name.substring(prefix.length(), name.length() - extension.length() - 1);
+            String classifier = rest.startsWith("-") ? rest.substring(1) : null;
+            if (rest.length() > 0 && classifier == null) {
+                // Not a project artifact (finalName.something.js)
+                continue;
+            }
+            getLog().debug("Attaching " + gz.getName());
+            projectHelper.attachArtifact(project, extension + ".gz", classifier, gz);
+        }
+    }
+}
@@ -61,11 +61,12 @@ public class StylesheetsAggregatorMojo extends AbstractCoffeeMillMojo {
 
         File output = new File(getWorkDirectory(), project.getBuild().getFinalName() + ".css");
 
-        Processor aggregator = new CSSAggregator();
+        CSSAggregator aggregator = new CSSAggregator();
         Map<String, Object> options = new HashMap<String, Object>();
         options.put("output", output);
         options.put("names", cssAggregation);
         options.put("extension", "css");
+        options.put("sourceMap", sourceMaps);
         aggregator.configure(this, options);
         try {
             aggregator.processAll();
@@ -76,6 +77,10 @@ public class StylesheetsAggregatorMojo extends AbstractCoffeeMillMojo {
         if (output.isFile()) {
             try {
                 FileUtils.copyFileToDirectory(output, getTarget());
+                if (aggregator.getSourceMap() != null) {
+                    aggregator.getSourceMap().write(new File(getTarget(), output.getName() + ".map"),
+                            new File(getTarget(), output.getName()));
+                }
                 // Do we already have a main JS artifact ?
                 if (project.getArtifact().getFile() != null  && project.getArtifact().getFile().exists()) {
                     projectHelper.attachArtifact(project, "css", output);
@@ -16,14 +16,18 @@
 package org.nanoko.coffee.mill.mojos.test;
 
 import com.github.searls.jasmine.TestMojo;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.FileUtils;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.utils.JasmineUtils;
+import org.nanoko.coffee.mill.utils.ReactorUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @goal jasmine-it-test
@@ -52,6 +56,22 @@ public class JasmineITMojo extends AbstractCoffeeMillMojo {
      */
     public File javaScriptIntegrationTestDir;
 
+    /**
+     * Runs the specs in the headless browser shared by the Jasmine executions of the project, without copying the
+     * libraries and the specs. If disabled, the Jasmine Maven Plugin is used.
+     * @parameter default-value="true" expression="${jasmine.reuseBrowser}"
+     */
+    protected boolean jasmineReuseBrowser;
+
+    /**
+     * The maven session.
+     *
+     * @parameter expression="${session}"
+     * @required
+     * @readonly
+     */
+    protected MavenSession session;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skipJasmineITTest) {
             getLog().debug("Skipping Jasmine Integration Tests");
@@ -64,6 +84,16 @@ public class JasmineITMojo extends AbstractCoffeeMillMojo {
 
         // Process-Resource goal
 
+        if (jasmineReuseBrowser) {
+            if (runJasmineTestOnAggregatedVersion) {
+                runInSharedBrowser(project.getBuild().getFinalName() + ".js", "aggregated");
+            }
+            if (runJasmineTestOnMinifiedVersion) {
+                runInSharedBrowser(project.getBuild().getFinalName() + "-min.js", "minified");
+            }
+            return;
+        }
+
         // Prepare execution
         // Copy the right library to target/it-jasmine/src
         try {
@@ -120,4 +150,22 @@ public class JasmineITMojo extends AbstractCoffeeMillMojo {
 
     }
 
+    private void runInSharedBrowser(String library, String version) throws MojoExecutionException,
+            MojoFailureException {
+        String reportName = "TEST-jasmine-it-" + library + ".xml";
+        try {
+            getLog().info("Running integration tests on " + version + " version");
+            TestMojo testMojo = new TestMojo();
+            JasmineUtils.prepareJasmineMojo(this, testMojo, null);
+            JasmineUtils.extendJasmineMojoForIT(this, testMojo, reportName);
+            List<File> specs = JasmineUtils.listScripts(getWorkTestDirectory());
+            JasmineUtils.runSpecs(this, testMojo, ReactorUtils.getJasmineBrowser(session, project, getLog()),
+                    Collections.singletonList(new File(getTarget(), library)), specs,
+                    JasmineUtils.getJasmineITDirectory(project), reportName);
+        } finally {
+            File report = new File(JasmineUtils.getJasmineITDirectory(project), reportName);
+            JasmineUtils.copyJunitReport(this, report, "integration-test.jasmine." + version);
+        }
+    }
+
 }
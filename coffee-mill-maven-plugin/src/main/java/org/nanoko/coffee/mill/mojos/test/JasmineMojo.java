@@ -16,15 +16,25 @@
 package org.nanoko.coffee.mill.mojos.test;
 
 import com.github.searls.jasmine.TestMojo;
+import com.github.searls.jasmine.model.JasmineResult;
 import org.apache.commons.io.FileUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.JasmineShardPlanner;
 import org.nanoko.coffee.mill.utils.JasmineUtils;
+import org.nanoko.coffee.mill.utils.ReactorUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @goal jasmine-test
@@ -44,6 +54,28 @@ public class JasmineMojo extends AbstractCoffeeMillMojo {
      */
     protected List<String> javascriptAggregation;
 
+    /**
+     * Runs the specs in the headless browser shared by the Jasmine executions of the project, without copying the
+     * sources and the specs. If disabled, the Jasmine Maven Plugin is used.
+     * @parameter default-value="true" expression="${jasmine.reuseBrowser}"
+     */
+    protected boolean jasmineReuseBrowser;
+
+    /**
+     * The number of headless browsers running the specs concurrently. The spec files are split into groups of
+     * similar durations, according to the durations of the previous runs. Requires <tt>jasmineReuseBrowser</tt>.
+     * @parameter default-value="1" expression="${jasmine.shards}"
+     */
+    protected int jasmineShards;
+
+    /**
+     * The maven session.
+     *
+     * @parameter expression="${session}"
+     * @required
+     * @readonly
+     */
+    protected MavenSession session;
 
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skipJasmineTest) {
@@ -58,6 +90,14 @@ public class JasmineMojo extends AbstractCoffeeMillMojo {
 
         // Process-Resource goal
 
+        if (jasmineReuseBrowser) {
+            runInSharedBrowser();
+            return;
+        }
+        if (jasmineShards > 1) {
+            getLog().warn("Jasmine specs are not sharded, jasmineReuseBrowser is disabled");
+        }
+
         // Prepare execution
         // Copy target/work to target/jasmine/src
         try {
@@ -88,4 +128,109 @@ public class JasmineMojo extends AbstractCoffeeMillMojo {
             JasmineUtils.copyJunitReport(this, report, "jasmine.test");
         }
     }
+
+    private void runInSharedBrowser() throws MojoExecutionException, MojoFailureException {
+        // Skip the execution if the WorkTest directory contains no spec
+        List<File> specs = JasmineUtils.listScripts(getWorkTestDirectory());
+        if (specs.isEmpty()) {
+            getLog().debug("Skipping Jasmine Tests - no spec found in the directory");
+            return;
+        }
+
+        // The report of a previous build must not be copied if this execution fails before writing it
+        File report = new File(JasmineUtils.getJasmineDirectory(project), JasmineUtils.TEST_JASMINE_XML);
+        FileUtils.deleteQuietly(report);
+        try {
+            TestMojo testMojo = new TestMojo();
+            JasmineUtils.prepareJasmineMojo(this, testMojo, javascriptAggregation);
+            if (jasmineShards > 1) {
+                runShards(testMojo, getSources(), specs);
+            } else {
+                JasmineUtils.runSpecs(this, testMojo, ReactorUtils.getJasmineBrowser(session, project, getLog()),
+                        getSources(), specs, JasmineUtils.getJasmineDirectory(project),
+                        JasmineUtils.TEST_JASMINE_XML);
+            }
+        } finally {
+            JasmineUtils.copyJunitReport(this, report, "jasmine.test");
+        }
+    }
+
+    /**
+     * Runs the groups of specs concurrently, each group in its own browser, and merges the reports.
+     */
+    private void runShards(final TestMojo testMojo, final List<File> sources, List<File> specs)
+            throws MojoExecutionException, MojoFailureException {
+        final File directory = JasmineUtils.getJasmineDirectory(project);
+        final JasmineShardPlanner planner = new JasmineShardPlanner(new File(getTarget(),
+                JasmineShardPlanner.HISTORY_FILE));
+        List<List<File>> groups = planner.split(specs, jasmineShards);
+        getLog().info("Running " + specs.size() + " spec files in " + groups.size() + " shards");
+
+        ExecutorService executor = Executors.newFixedThreadPool(groups.size());
+        List<Future<JasmineResult>> results = new ArrayList<Future<JasmineResult>>();
+        List<File> reports = new ArrayList<File>();
+        for (int i = 0; i < groups.size(); i++) {
+            final int index = i;
+            final List<File> group = groups.get(i);
+            final String reportName = "TEST-jasmine-shard-" + i + ".xml";
+            reports.add(new File(directory, reportName));
+            results.add(executor.submit(new Callable<JasmineResult>() {
+                public JasmineResult call() throws Exception {
+                    long begin = System.currentTimeMillis();
+                    JasmineResult result = JasmineUtils.executeSpecs(testMojo,
+                            ReactorUtils.getJasmineBrowser(session, project, index, getLog()), sources, group,
+                            directory, "SpecRunner-shard-" + index + ".html", reportName);
+                    planner.record(group, System.currentTimeMillis() - begin);
+                    return result;
+                }
+            }));
+        }
+
+        boolean passed = true;
+        try {
+            for (Future<JasmineResult> future : results) {
+                JasmineResult result = future.get();
+                getLog().info("\n" + result.getDetails());
+                passed = passed && result.didPass();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running the Jasmine specs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException("Cannot run the Jasmine specs", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try {
+            planner.save();
+            JasmineUtils.mergeJunitReports(reports, new File(directory, JasmineUtils.TEST_JASMINE_XML));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot write the Jasmine reports", e);
+        }
+        if (!passed) {
+            throw new MojoFailureException("There were Jasmine spec failures.");
+        }
+    }
+
+    /**
+     * @return the sources to load, following the aggregation order if set
+     */
+    private List<File> getSources() {
+        if (javascriptAggregation == null) {
+            return JasmineUtils.listScripts(getWorkDirectory());
+        }
+        List<File> sources = new ArrayList<File>();
+        for (String name : javascriptAggregation) {
+            File file = new File(getWorkDirectory(), name);
+            if (!file.isFile()) {
+                file = new File(getWorkDirectory(), name + ".js");
+            }
+            sources.add(file);
+        }
+        return sources;
+    }
 }
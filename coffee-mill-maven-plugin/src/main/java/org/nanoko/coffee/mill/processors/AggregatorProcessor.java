@@ -18,15 +18,26 @@ package org.nanoko.coffee.mill.processors;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.AggregateSourceMap;
 import org.nanoko.coffee.mill.utils.OptionsHelper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Common facet of aggregator.
+ *
+ * In watch mode, the aggregator keeps the list of aggregated files until a file is created or deleted, and the
+ * position of each file in the output. When a file is updated, only its segment is replaced: the rest of the
+ * output is transferred from the previous output, without reading the other files again.
+ *
+ * If the <tt>sourceMap</tt> option is enabled, a source map (<tt>output.map</tt>) is written next to the output.
+ * The lines of each file are counted while the file is copied, so files are still read only once.
  */
 public abstract class AggregatorProcessor extends DefaultProcessor {
 
@@ -35,13 +46,48 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
     private String extension;
     private List<String> names;
 
+    /**
+     * The files to aggregate, <code>null</code> if the list must be computed again.
+     */
+    private List<File> files;
+
+    /**
+     * The segments of the last written aggregate, <code>null</code> if unknown.
+     */
+    private List<Segment> segments;
+
+    /**
+     * The aggregate file described by {@link #segments}.
+     */
+    private File indexedFile;
+
+    /**
+     * The length of the separator written after each file.
+     */
+    private int separatorLength;
+
+    /**
+     * The number of lines in the separator.
+     */
+    private int separatorNewlines;
+
+    /**
+     * The length of the source map comment written at the end of the output.
+     */
+    private int trailerLength;
+
+    /**
+     * Whether a source map is generated.
+     */
+    private boolean sourceMap;
+
     public List<File> computeFileList(List<String> names, File workDir, File libDir, String extension,
                                       boolean failedOnMissingFile) throws ProcessorException {
         List<File> result = new ArrayList<File>();
 
         if (names == null || names.isEmpty()) {
             if (workDir.exists()) {
-                result.addAll(FileUtils.listFiles(workDir, new String[]{extension}, true));
+                result.addAll(listFiles(workDir, new String[]{extension}));
             } else {
                 // Else we just skip.
                 getLog().debug("Aggregation skipped - no files to aggregate");
@@ -74,11 +120,11 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
     private File resolveFile(final String name, File workDir, File libDir, String extension) {
         // 1) Check for the file in the workDir with a direct name
         File file = new File(workDir, name);
-        if (file.isFile()) { return file; }
+        if (exists(file)) { return file; }
 
         // 2) Try to append the extension
         file = new File(workDir, name + "." + extension);
-        if (file.isFile()) { return file; }
+        if (exists(file)) { return file; }
 
         // 3) Search in the libDir as prefix
         if (libDir != null  && libDir.exists()) {
@@ -93,24 +139,40 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
         return null;
     }
 
+    /**
+     * Aggregates the given files into <tt>to</tt>. The content is transferred from file to file without going
+     * through the heap. The aggregate is first written to a temporary file, then renamed, so readers never see a
+     * partially written file.
+     */
     public void aggregate(List<File> files, File to) throws FileNotFoundException, ProcessorException {
+        segments = null;
         if (files.isEmpty()) {
             return;
         }
 
         getLog().info("Aggregating  " + files.size() + " files into " + to.getAbsolutePath());
+        if (store != null) {
+            aggregateInStore(files, to);
+            return;
+        }
         to.getParentFile().mkdirs();
-        FileOutputStream out = new FileOutputStream(to);
+        File tmp = new File(to.getParentFile(), to.getName() + ".tmp");
+        FileChannel out = new FileOutputStream(tmp).getChannel();
         try {
+            byte[] separator = getSeparator();
+            byte[] trailer = getTrailer(to);
+            List<Segment> index = new ArrayList<Segment>();
             for (File file : files) {
                 if (file.getPath().equals(to.getPath())) {
                     continue;
                 }
                 getLog().debug("Copying " + file.getAbsolutePath() + " to " + to.getName());
-                FileInputStream in = new FileInputStream(file);
+                FileChannel in = new FileInputStream(file).getChannel();
                 try {
-                    IOUtils.copy(in, out);
-                    separator(out);
+                    Segment segment = new Segment(file, out.position(), in.size());
+                    index.add(segment);
+                    copy(in, out, segment);
+                    write(separator, out);
                 } catch (IOException e) {
                     getLog().error("Aggregation failed : Cannot build aggregate file - " + e.getMessage());
                     throw new ProcessorException("Aggregation failed : cannot build aggregate file", e);
@@ -118,30 +180,278 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
                     IOUtils.closeQuietly(in);
                 }
             }
+            write(trailer, out);
+            out.close();
+            rename(tmp, to);
+            segments = index;
+            indexedFile = to;
+            separatorLength = separator.length;
+            separatorNewlines = countNewlines(separator);
+            trailerLength = trailer.length;
+            writeSourceMap(to);
+        } catch (IOException e) {
+            throw new ProcessorException("Aggregation failed : cannot write " + to.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Aggregates the given files into <tt>to</tt> in the output store. The files are read from the store when they
+     * are managed by the store.
+     */
+    private void aggregateInStore(List<File> files, File to) throws ProcessorException {
+        try {
+            byte[] separator = getSeparator();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            List<Segment> index = new ArrayList<Segment>();
+            for (File file : files) {
+                if (file.getPath().equals(to.getPath())) {
+                    continue;
+                }
+                byte[] content = readFileToByteArray(file);
+                Segment segment = new Segment(file, out.size(), content.length);
+                segment.newlines = countNewlines(content);
+                segment.endsWithNewline = content.length > 0 && content[content.length - 1] == '\n';
+                index.add(segment);
+                out.write(content);
+                out.write(separator);
+            }
+            out.write(getTrailer(to));
+            segments = index;
+            indexedFile = to;
+            separatorNewlines = countNewlines(separator);
+            writeOutput(to, out.toByteArray());
+            AggregateSourceMap map = getSourceMap();
+            if (map != null) {
+                writeOutput(new File(to.getParentFile(), to.getName() + ".map"),
+                        map.toJSON(to.getParentFile(), to.getName()).getBytes("UTF-8"));
+            }
+        } catch (IOException e) {
+            throw new ProcessorException("Aggregation failed : cannot build aggregate file " + to.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Replaces the segment of the given file in the last written aggregate. The part of the aggregate before the
+     * segment and the part after are transferred from the previous aggregate.
+     *
+     * @param file the updated file
+     * @return <code>true</code> if the aggregate is up to date, <code>false</code> if it must be rebuilt.
+     */
+    private boolean splice(File file) throws ProcessorException {
+        if (store != null || segments == null || segments.isEmpty()
+                || !output.getAbsoluteFile().equals(indexedFile.getAbsoluteFile())) {
+            return false;
+        }
+        Segment last = segments.get(segments.size() - 1);
+        if (output.length() != last.offset + last.length + separatorLength + trailerLength) {
+            // Modified by someone else.
+            return false;
+        }
+        int position = -1;
+        for (int i = 0; i < segments.size() && position == -1; i++) {
+            if (segments.get(i).file.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                position = i;
+            }
+        }
+        if (position == -1) {
+            // Not aggregated.
+            return true;
+        }
+
+        Segment segment = segments.get(position);
+        getLog().info("Updating " + file.getName() + " in " + output.getAbsolutePath());
+        File tmp = new File(output.getParentFile(), output.getName() + ".tmp");
+        FileChannel previous = null;
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            previous = new FileInputStream(output).getChannel();
+            in = new FileInputStream(file).getChannel();
+            out = new FileOutputStream(tmp).getChannel();
+            long length = in.size();
+            long tail = segment.offset + segment.length + separatorLength;
+            transfer(previous, 0, segment.offset, out);
+            copy(in, out, segment);
+            write(getSeparator(), out);
+            transfer(previous, tail, previous.size() - tail, out);
+            out.close();
+            previous.close();
+            rename(tmp, output);
+
+            long delta = length - segment.length;
+            segment.length = length;
+            for (int i = position + 1; i < segments.size(); i++) {
+                segments.get(i).offset += delta;
+            }
+            writeSourceMap(output);
+            return true;
+        } catch (IOException e) {
+            getLog().warn("Cannot update the aggregate file incrementally - " + e.getMessage());
+            segments = null;
+            return false;
         } finally {
+            IOUtils.closeQuietly(previous);
+            IOUtils.closeQuietly(in);
             IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmp);
         }
     }
 
+    /**
+     * Copies the content of the file of the given segment. If a source map is generated, the content goes
+     * through a buffer to count the lines, otherwise it is directly transferred.
+     */
+    private void copy(FileChannel in, FileChannel out, Segment segment) throws IOException {
+        if (!sourceMap) {
+            transfer(in, 0, in.size(), out);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int newlines = 0;
+        byte last = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            byte[] array = buffer.array();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (array[i] == '\n') {
+                    newlines++;
+                }
+            }
+            if (buffer.limit() > 0) {
+                last = array[buffer.limit() - 1];
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+        segment.newlines = newlines;
+        segment.endsWithNewline = last == '\n';
+    }
+
+    /**
+     * Gets the source map of the last written aggregate.
+     *
+     * @return the source map, <code>null</code> if source maps are disabled or if there is no aggregate.
+     */
+    public AggregateSourceMap getSourceMap() {
+        if (!sourceMap || segments == null) {
+            return null;
+        }
+        AggregateSourceMap map = new AggregateSourceMap();
+        int line = 0;
+        for (Segment segment : segments) {
+            map.add(segment.file, line, segment.getMappedLines());
+            line += segment.newlines + separatorNewlines;
+        }
+        return map;
+    }
+
+    private void writeSourceMap(File to) throws IOException {
+        AggregateSourceMap map = getSourceMap();
+        if (map != null) {
+            map.write(new File(to.getParentFile(), to.getName() + ".map"), to);
+        }
+    }
+
+    /**
+     * @return the comment referencing the source map, empty if source maps are disabled.
+     */
+    private byte[] getTrailer(File to) throws IOException {
+        if (!sourceMap) {
+            return new byte[0];
+        }
+        return (sourceMappingComment(to.getName() + ".map") + "\n").getBytes("UTF-8");
+    }
+
+    private static int countNewlines(byte[] bytes) {
+        int count = 0;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Transfers <tt>count</tt> bytes of <tt>in</tt> from <tt>position</tt> at the current position of <tt>out</tt>.
+     */
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            position += in.transferTo(position, end - position, out);
+        }
+    }
+
+    private static void write(byte[] bytes, FileChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Replaces <tt>to</tt> by <tt>from</tt>. The rename is atomic on most file systems, on the others (Windows),
+     * the target has to be deleted first.
+     */
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            FileUtils.deleteQuietly(to);
+            if (!from.renameTo(to)) {
+                throw new IOException("Cannot move " + from.getAbsolutePath() + " to " + to.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return the bytes written by {@link #separator(OutputStream)}.
+     */
+    private byte[] getSeparator() throws IOException {
+        ByteArrayOutputStream separator = new ByteArrayOutputStream();
+        separator(separator);
+        return separator.toByteArray();
+    }
+
     @Override
     public void configure(AbstractCoffeeMillMojo mojo, Map<String, Object> options) {
         super.configure(mojo, options);
         this.extension = OptionsHelper.getString(options, "extension");
         this.output = OptionsHelper.getFile(options, "output");
         this.names = (List<String>) options.get("names");
+        this.sourceMap = OptionsHelper.getBoolean(options, "sourceMap", false);
     }
 
     @Override
     public boolean accept(File file) {
         return !file.getAbsoluteFile().equals(output.getAbsoluteFile()) // Not the output
-                && isFileContainedInDirectory(file, mojo.getWorkDirectory()) // from the work dir
-                && file.isFile()
+                && isOutputContainedInDirectory(file, mojo.getWorkDirectory()) // from the work dir
                 && file.getName().endsWith(extension); // from the right type
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(mojo.getWorkDirectory(), extension));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(output.getParentFile(), extension));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        return Collections.singletonList(output);
+    }
+
     public void aggregate() throws ProcessorException {
         try {
-            List<File> files = computeFileList(names, mojo.getWorkDirectory(), mojo.getLibDirectory(), extension, true);
+            if (files == null) {
+                files = computeFileList(names, mojo.getWorkDirectory(), mojo.getLibDirectory(), extension, true);
+            }
             aggregate(files, output);
         } catch (FileNotFoundException e) {
             throw new ProcessorException("Cannot build aggregate file " + output.getAbsolutePath(), e);
@@ -150,6 +460,7 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
 
     @Override
     public void processAll() throws ProcessorException {
+        files = null;
         if (mojo.getWorkDirectory().exists()) {
             aggregate();
         }
@@ -157,16 +468,36 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
 
     @Override
     public void fileCreated(File file) throws ProcessorException {
+        files = null;
         aggregate();
     }
 
     @Override
     public void fileUpdated(File file) throws ProcessorException {
-        aggregate();
+        if (!splice(file)) {
+            aggregate();
+        }
     }
 
     @Override
     public void fileDeleted(File file) throws ProcessorException {
+        files = null;
+        aggregate();
+    }
+
+    /**
+     * Builds the aggregate once for the whole burst. Only a single updated file is spliced into the aggregate.
+     */
+    @Override
+    protected void processChanges(ChangeSet changes) throws ProcessorException {
+        List<File> updated = changes.getUpdatedFiles();
+        if (updated.size() == changes.size()) {
+            if (updated.size() == 1 && splice(updated.get(0))) {
+                return;
+            }
+        } else {
+            files = null;
+        }
         aggregate();
     }
 
@@ -176,4 +507,40 @@ public abstract class AggregatorProcessor extends DefaultProcessor {
 
     public abstract void separator(OutputStream out) throws IOException;
 
+    /**
+     * Gets the comment referencing the source map, written at the end of the aggregate.
+     *
+     * @param sourceMap the source map URL
+     * @return the comment
+     */
+    public abstract String sourceMappingComment(String sourceMap);
+
+    /**
+     * The position of a file in the aggregate.
+     */
+    private static class Segment {
+        private final File file;
+        private long offset;
+        private long length;
+
+        /**
+         * The number of line breaks in the file, only computed if source maps are enabled.
+         */
+        private int newlines;
+        private boolean endsWithNewline;
+
+        private Segment(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private int getMappedLines() {
+            if (length == 0) {
+                return 0;
+            }
+            return endsWithNewline ? newlines : newlines + 1;
+        }
+    }
+
 }
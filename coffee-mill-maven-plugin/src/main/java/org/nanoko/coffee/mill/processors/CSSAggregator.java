@@ -26,4 +26,9 @@ public class CSSAggregator extends AggregatorProcessor {
     public void separator(OutputStream out) throws IOException {
         out.write('\n');
     }
+
+    @Override
+    public String sourceMappingComment(String sourceMap) {
+        return "/*# sourceMappingURL=" + sourceMap + " */";
+    }
 }
@@ -15,24 +15,23 @@
 
 package org.nanoko.coffee.mill.processors;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import org.apache.commons.io.FileUtils;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.RhinoClassCache;
 import org.nanoko.coffee.mill.utils.RhinoLauncher;
+import org.nanoko.coffee.mill.utils.RhinoResults;
+import org.nanoko.coffee.mill.utils.RhinoScopePool;
 import ro.isdc.wro.extensions.processor.support.csslint.CssLint;
-import ro.isdc.wro.extensions.processor.support.csslint.CssLintError;
 import ro.isdc.wro.extensions.script.RhinoUtils;
-import ro.isdc.wro.util.WroUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -48,27 +47,20 @@ public class CSSLintProcessor extends DefaultProcessor {
     public List<ProcessorWarning> validate(File file) throws ProcessorException {
         List warnings = new ArrayList<ProcessorWarning>();
         try {
-            String data = FileUtils.readFileToString(file);
-            data = WroUtil.toJSMultiLineString(data);
+            String data = readFileToString(file);
+            if (data.indexOf('\n') == -1) {
+                // A single line must have at least one new line (otherwise cssLint fails).
+                data = data + "\n";
+            }
             final RhinoLauncher builder = initScriptBuilder();
-            String script = String.format("var result = CSSLint.verify(%s,%s)", data,
-                    "CSSLint.getRules()"); // All rules.
-            builder.evaluate(script, "CSSLint.verify").toString();
-
-            final boolean valid = Boolean.parseBoolean(builder.evaluate("result.messages.length == 0",
-                    "checkNoErrors").toString());
-            if (!valid) {
-                final String json = builder.addJSON().evaluate("JSON.stringify(result.messages)",
-                        "CssLint messages").toString();
-                final Type type = new TypeToken<List<CssLintError>>() {
-                }.getType();
-                final List<CssLintError> errors = new Gson().fromJson(json, type);
-                getLog().debug("Errors: " + errors);
-                for (CssLintError error : errors) {
-                    warnings.add(new ProcessorWarning(file, error.getLine(), error.getCol(), error.getEvidence(),
-                            error.getType() + " : " + error.getMessage()));
-                }
+            final Scriptable result = (Scriptable) builder.call("CSSLint.verify", data,
+                    builder.call("CSSLint.getRules")); // All rules.
+            for (Scriptable message : RhinoResults.getObjects(result, "messages")) {
+                warnings.add(new ProcessorWarning(file, RhinoResults.getInt(message, "line", 0),
+                        RhinoResults.getInt(message, "col", 0), RhinoResults.getString(message, "evidence"),
+                        RhinoResults.getString(message, "type") + " : " + RhinoResults.getString(message, "message")));
             }
+            getLog().debug("Errors: " + warnings.size());
             return warnings;
         } catch (final RhinoException e) {
             throw new ProcessorException(RhinoUtils.createExceptionMessage(e), e);    // TODO Extract Rhino Utils.
@@ -99,20 +91,33 @@ public class CSSLintProcessor extends DefaultProcessor {
      * @return
      */
     public boolean accept(File file) {
-        return isFileContainedInDirectory(file, source) && file.getName().endsWith(".css") && file.isFile();
+        return isOutputContainedInDirectory(file, source) && file.getName().endsWith(".css");
+    }
+
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(source, "css"));
     }
 
     @Override
     public void processAll() throws ProcessorException {
-        Collection<File> files = FileUtils.listFiles(source, new String[]{"css"}, true);
-        for (File file : files) {
-            if (file.isFile()) {
-                List<ProcessorWarning> warnings = validate(file);
-                for (ProcessorWarning warning : warnings) {
-                    getLog().warn("In " + file.getName() + " @" + warning.line + ":" + warning.character + " -> " +
-                            warning.evidence + " - " + warning.reason);
+        Collection<File> files = listFiles(source, new String[]{"css"});
+        try {
+            for (File file : files) {
+                if (!isUpToDate(file)) {
+                    List<ProcessorWarning> warnings = validate(file);
+                    for (ProcessorWarning warning : warnings) {
+                        getLog().warn("In " + file.getName() + " @" + warning.line + ":" + warning.character
+                                + " -> " + warning.evidence + " - " + warning.reason);
+                    }
+                    // Files with warnings are checked again, so warnings are reported by every build.
+                    if (warnings.isEmpty()) {
+                        markAsProcessed(file);
+                    }
                 }
             }
+        } finally {
+            saveManifest();
         }
     }
 
@@ -132,13 +137,19 @@ public class CSSLintProcessor extends DefaultProcessor {
 
     /**
      * Initialize script builder for evaluation.
+     * CSSLint is evaluated only once, in a shared scope.
      */
     private RhinoLauncher initScriptBuilder() {
-        try {
-            return RhinoLauncher.newChain().evaluateChain(getScriptAsStream(),
-                    DEFAULT_CSSLINT_JS);
-        } catch (final IOException ex) {
-            throw new IllegalStateException("Failed reading init script", ex);
-        }
+        final RhinoClassCache classCache = RhinoClassCache.forMojo(mojo);
+        return RhinoScopePool.newChain(DEFAULT_CSSLINT_JS, classCache, new RhinoScopePool.ScopeFactory() {
+            public RhinoLauncher create(RhinoClassCache cache) {
+                try {
+                    return RhinoLauncher.newChain(cache).evaluateChain(getScriptAsStream(),
+                            DEFAULT_CSSLINT_JS);
+                } catch (final IOException ex) {
+                    throw new IllegalStateException("Failed reading init script", ex);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.processors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of file changes, delivered at once to the processors. The successive changes of a file are collapsed into
+ * a single one, relative to the state of the file before the first change:
+ * <ul>
+ * <li>created then updated is created</li>
+ * <li>created then deleted is nothing</li>
+ * <li>updated then deleted is deleted</li>
+ * <li>deleted then created is updated</li>
+ * </ul>
+ * Files are kept in the order of their first change.
+ */
+public class ChangeSet {
+
+    public enum Kind {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final Map<File, Kind> changes = new LinkedHashMap<File, Kind>();
+
+    /**
+     * Records a change.
+     *
+     * @param file the file
+     * @param kind the change
+     */
+    public void add(File file, Kind kind) {
+        File key = file.getAbsoluteFile();
+        Kind previous = changes.get(key);
+        if (previous == null) {
+            changes.put(key, kind);
+        } else if (previous == Kind.CREATED) {
+            if (kind == Kind.DELETED) {
+                changes.remove(key);
+            }
+        } else if (previous == Kind.DELETED) {
+            if (kind != Kind.DELETED) {
+                changes.put(key, Kind.UPDATED);
+            }
+        } else {
+            changes.put(key, kind == Kind.DELETED ? Kind.DELETED : Kind.UPDATED);
+        }
+    }
+
+    /**
+     * Records all the changes of the given set.
+     *
+     * @param set the changes
+     */
+    public void addAll(ChangeSet set) {
+        for (Map.Entry<File, Kind> entry : set.changes.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public Kind getKind(File file) {
+        return changes.get(file.getAbsoluteFile());
+    }
+
+    public List<File> getFiles() {
+        return new ArrayList<File>(changes.keySet());
+    }
+
+    public List<File> getCreatedFiles() {
+        return getFiles(Kind.CREATED);
+    }
+
+    public List<File> getUpdatedFiles() {
+        return getFiles(Kind.UPDATED);
+    }
+
+    public List<File> getDeletedFiles() {
+        return getFiles(Kind.DELETED);
+    }
+
+    private List<File> getFiles(Kind kind) {
+        List<File> files = new ArrayList<File>();
+        for (Map.Entry<File, Kind> entry : changes.entrySet()) {
+            if (entry.getValue() == kind) {
+                files.add(entry.getKey());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Gets the changes of the files accepted by the given processor.
+     *
+     * @param processor the processor
+     * @return the accepted changes, empty if the processor does not accept any file
+     */
+    public ChangeSet filter(Processor processor) {
+        ChangeSet set = new ChangeSet();
+        for (Map.Entry<File, Kind> entry : changes.entrySet()) {
+            if (processor.accept(entry.getKey())) {
+                set.changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public String toString() {
+        return changes.toString();
+    }
+}
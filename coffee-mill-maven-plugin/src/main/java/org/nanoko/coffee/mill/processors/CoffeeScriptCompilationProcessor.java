@@ -19,12 +19,16 @@ import org.apache.commons.io.FileUtils;
 import org.mozilla.javascript.RhinoException;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.RhinoClassCache;
 import org.nanoko.coffee.mill.utils.RhinoLauncher;
+import org.nanoko.coffee.mill.utils.RhinoScopePool;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,6 +41,11 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
     private File source;
     private File destination;
 
+    /**
+     * Number of threads used to compile files.
+     */
+    private int threads;
+
     public void tearDown() {
         // Do nothing.
     }
@@ -51,12 +60,28 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
             this.source = mojo.coffeeScriptDir;
             this.destination = mojo.getWorkDirectory();
         }
+        this.threads = OptionsHelper.getInteger(options, "threads", 1);
     }
 
     public boolean accept(File file) {
         return isFileContainedInDirectory(file, source)  && file.getName().endsWith(".coffee")  && file.isFile();
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(source, "coffee"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(destination, "js"));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        return Collections.singletonList(getOutputJSFile(input));
+    }
+
 
     @Override
     public void processAll() throws ProcessorException {
@@ -64,10 +89,16 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
             return;
         }
         Collection<File> files = FileUtils.listFiles(source, new String[]{"coffee"}, true);
-        for (File file : files) {
-            if (file.isFile()) {
-                compile(file);
-            }
+        try {
+            processFiles(files, threads, new FileTask() {
+                public void process(File file) throws ProcessorException {
+                    if (file.isFile() && !isUpToDate(file)) {
+                        compile(file);
+                    }
+                }
+            });
+        } finally {
+            saveManifest();
         }
     }
 
@@ -83,11 +114,10 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
         try {
             final String data = FileUtils.readFileToString(file);
             final RhinoLauncher builder = initScriptBuilder();
-            final String compileScript = String.format("CoffeeScript.compile(%s, %s);",
-                    RhinoLauncher.toJSMultiLineString(data),
-                    "{}"); // No options
-            final String result = (String) builder.evaluate(compileScript, "CoffeeScript.compile");
-            FileUtils.write(out, result);
+            final String result = String.valueOf(builder.call("CoffeeScript.compile", data,
+                    Collections.emptyMap())); // No options
+            writeOutput(out, result);
+            markAsProcessed(file, out);
         } catch (RhinoException jse) {
             throw new ProcessorException("Compilation Error in " + file.getName() + "@" + jse.lineNumber() +
                     " - " + jse.details());
@@ -108,12 +138,30 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
 
     @Override
     public void fileDeleted(File file) {
+        markAsRemoved(file);
         File theFile = getOutputJSFile(file);
-        if (theFile.exists()) {
-            theFile.delete();
+        if (exists(theFile)) {
+            deleteOutput(theFile);
         }
     }
 
+    /**
+     * Compiles the created and updated files of the burst concurrently.
+     */
+    @Override
+    protected void processChanges(ChangeSet changes) throws ProcessorException {
+        for (File file : changes.getDeletedFiles()) {
+            fileDeleted(file);
+        }
+        List<File> files = changes.getCreatedFiles();
+        files.addAll(changes.getUpdatedFiles());
+        processFiles(files, threads, new FileTask() {
+            public void process(File file) throws ProcessorException {
+                compile(file);
+            }
+        });
+    }
+
     private static final String DEFAULT_COFFEE_SCRIPT = "/coffeescript/coffee-script.js";
 
     /**
@@ -125,14 +173,20 @@ public class CoffeeScriptCompilationProcessor extends DefaultProcessor {
 
     /**
      * Initialize script builder for evaluation.
+     * The CoffeeScript compiler is evaluated only once, in a shared scope.
      */
     private RhinoLauncher initScriptBuilder() {
-        try {
-            return RhinoLauncher.newChain().evaluateChain(getScriptAsStream(),
-                        DEFAULT_COFFEE_SCRIPT);
-        } catch (final IOException ex) {
-            throw new IllegalStateException("Failed reading init script", ex);
-        }
+        final RhinoClassCache classCache = RhinoClassCache.forMojo(mojo);
+        return RhinoScopePool.newChain(DEFAULT_COFFEE_SCRIPT, classCache, new RhinoScopePool.ScopeFactory() {
+            public RhinoLauncher create(RhinoClassCache cache) {
+                try {
+                    return RhinoLauncher.newChain(cache).evaluateChain(getScriptAsStream(),
+                            DEFAULT_COFFEE_SCRIPT);
+                } catch (final IOException ex) {
+                    throw new IllegalStateException("Failed reading init script", ex);
+                }
+            }
+        });
     }
 
 }
@@ -23,6 +23,8 @@ import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -101,8 +103,17 @@ public class CopyAssetProcessor extends DefaultProcessor {
             return;
         }
 
+        getLog().info("Copying " + assetsDir.getAbsolutePath() + " to " + workDir.getAbsolutePath());
+        if (store != null) {
+            for (File file : FileUtils.listFiles(assetsDir, null, true)) {
+                if (defaultExcludeFilter.accept(file)) {
+                    copyOutput(file, assetsDir, workDir);
+                }
+            }
+            return;
+        }
+
         try {
-            getLog().info("Copying " + assetsDir.getAbsolutePath() + " to " + workDir.getAbsolutePath());
             FileUtils.copyDirectory(assetsDir, workDir, defaultExcludeFilter, true);
         } catch (IOException e) {
             throw new ProcessorException("Cannot copy assets to the work directory", e);
@@ -120,21 +131,36 @@ public class CopyAssetProcessor extends DefaultProcessor {
         return isFileContainedInDirectory(file, assetsDir);
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(assetsDir));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(workDir));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        return Collections.singletonList(computeRelativeFile(input, assetsDir, workDir));
+    }
+
     public void fileCreated(File file) throws ProcessorException {
         getLog().info("Copying " + file.getName() + " to " + workDir.getAbsolutePath());
-        copyFileToDir(file, assetsDir, workDir);
+        copyOutput(file, assetsDir, workDir);
     }
 
     public void fileUpdated(File file) throws ProcessorException {
         getLog().info("Copying " + file.getName() + " to " + workDir.getAbsolutePath());
-        copyFileToDir(file, assetsDir, workDir);
+        copyOutput(file, assetsDir, workDir);
     }
 
     public void fileDeleted(File file) {
         File target = computeRelativeFile(file, assetsDir, workDir);
-        if (target.isFile()) {
+        if (exists(target)) {
             getLog().info("Deleting " + target.getAbsolutePath());
-            target.delete();
+            deleteOutput(target);
         }
     }
 
@@ -18,20 +18,49 @@ package org.nanoko.coffee.mill.processors;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.BuildManifest;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.OutputStore;
+import org.nanoko.coffee.mill.utils.WorkerPool;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Default Implementation of Processor
  */
 public class DefaultProcessor implements Processor {
 
+    /**
+     * The options changing how a processor runs, but not what it produces.
+     */
+    private static final List<String> EXECUTION_OPTIONS = Arrays.asList("threads", "parallelism", "timeout");
+
     protected AbstractCoffeeMillMojo mojo;
     protected Map<String, Object> options;
 
+    /**
+     * The build manifest, <code>null</code> if incremental builds are disabled.
+     */
+    protected BuildManifest manifest;
+
+    /**
+     * The store receiving the output files, <code>null</code> if the files are written to the disk.
+     */
+    protected OutputStore store;
+
     public void configure(AbstractCoffeeMillMojo mojo, Map<String, Object> options) {
         this.mojo = mojo;
         if (options == null) {
@@ -39,6 +68,9 @@ public class DefaultProcessor implements Processor {
         } else {
             this.options = options;
         }
+        this.store = mojo.getOutputStore();
+        // Outputs kept in memory may never reach the disk, they must not be recorded as up to date.
+        this.manifest = store == null ? BuildManifest.forMojo(mojo) : null;
     }
 
     public void processAll() throws ProcessorException {
@@ -66,14 +98,331 @@ public class DefaultProcessor implements Processor {
         // Do nothing
     }
 
+    /**
+     * Processes the changes with {@link #processChanges(ChangeSet)}, and computes the changes of the output files
+     * from {@link #getOutputFiles(File)}.
+     */
+    public ChangeSet filesChanged(ChangeSet changes) throws ProcessorException {
+        Map<File, Boolean> outputs = new LinkedHashMap<File, Boolean>();
+        for (File input : changes.getFiles()) {
+            for (File output : getOutputFiles(input)) {
+                outputs.put(output.getAbsoluteFile(), exists(output));
+            }
+        }
+
+        processChanges(changes);
+
+        ChangeSet result = new ChangeSet();
+        for (Map.Entry<File, Boolean> entry : outputs.entrySet()) {
+            if (exists(entry.getKey())) {
+                result.add(entry.getKey(), entry.getValue() ? ChangeSet.Kind.UPDATED : ChangeSet.Kind.CREATED);
+            } else if (entry.getValue()) {
+                result.add(entry.getKey(), ChangeSet.Kind.DELETED);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dispatches each change to {@link #fileDeleted(File)}, {@link #fileCreated(File)} or
+     * {@link #fileUpdated(File)}. Deletions are processed first. Processors for which a batch can be handled more
+     * efficiently than file by file override this method.
+     *
+     * @param changes the changes
+     * @throws ProcessorException if at least one change cannot be processed
+     */
+    protected void processChanges(final ChangeSet changes) throws ProcessorException {
+        List<File> files = changes.getDeletedFiles();
+        files.addAll(changes.getCreatedFiles());
+        files.addAll(changes.getUpdatedFiles());
+        processFiles(files, null, new FileTask() {
+            public void process(File file) throws ProcessorException {
+                switch (changes.getKind(file)) {
+                    case CREATED:
+                        fileCreated(file);
+                        break;
+                    case UPDATED:
+                        fileUpdated(file);
+                        break;
+                    default:
+                        fileDeleted(file);
+                }
+            }
+        });
+    }
+
+    public List<FileSet> getInputs() {
+        return Collections.emptyList();
+    }
+
+    public List<FileSet> getOutputs() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Gets the files written when the given input file changes.
+     *
+     * @param input the input file
+     * @return the output files, empty by default
+     */
+    protected List<File> getOutputFiles(File input) {
+        return Collections.emptyList();
+    }
+
     public Log getLog() {
         return mojo.getLog();
     }
 
+    /**
+     * Gets the key identifying this processor in the build manifest. It contains the processor class, the plugin
+     * version and a fingerprint of the options affecting the output, so changing one of them invalidates the
+     * recorded files.
+     *
+     * @return the key
+     */
+    protected String getManifestKey() {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, Object> entry : options.entrySet()) {
+            if (isOutputOption(entry.getKey())) {
+                sorted.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        return getClass().getName() + "@" + getClass().getPackage().getImplementationVersion() + "@"
+                + HashUtils.sha1(sorted.toString());
+    }
+
+    /**
+     * Checks whether an option changes the output of the processor. The execution options (<tt>threads</tt>,
+     * <tt>parallelism</tt> and <tt>timeout</tt>) do not.
+     *
+     * @param option the option name
+     * @return <code>true</code> if the option is part of the manifest key
+     */
+    protected boolean isOutputOption(String option) {
+        return !EXECUTION_OPTIONS.contains(option);
+    }
+
+    /**
+     * Checks whether the given file was already processed and did not change since.
+     *
+     * @param file the input file
+     * @return <code>true</code> if the file can be skipped, always <code>false</code> if incremental builds are
+     * disabled.
+     */
+    protected boolean isUpToDate(File file) {
+        if (manifest != null && manifest.isUpToDate(getManifestKey(), file)) {
+            getLog().debug(file.getName() + " is up to date");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the processing of the given file in the build manifest.
+     *
+     * @param file    the input file
+     * @param outputs the produced files
+     */
+    protected void markAsProcessed(File file, File... outputs) {
+        if (manifest != null) {
+            manifest.record(getManifestKey(), file, outputs);
+        }
+    }
+
+    /**
+     * Removes the given file from the build manifest, so it will be processed by the next build.
+     *
+     * @param file the input file
+     */
+    protected void markAsRemoved(File file) {
+        if (manifest != null) {
+            manifest.remove(getManifestKey(), file);
+        }
+    }
+
+    /**
+     * Writes the build manifest, generally at the end of {@link #processAll()}.
+     */
+    protected void saveManifest() {
+        if (manifest != null) {
+            manifest.save();
+        }
+    }
+
+    /**
+     * A task processing one file.
+     */
+    public interface FileTask {
+        void process(File file) throws ProcessorException;
+    }
+
+    /**
+     * Applies the task on each file. If <tt>threads</tt> is greater than 1, the files are processed concurrently
+     * by the shared worker pool. The processing does not stop on the first failure: errors are collected and
+     * reported together once all files are processed.
+     *
+     * @param files   the files
+     * @param threads the number of threads to use
+     * @param task    the task
+     * @throws ProcessorException if at least one file cannot be processed
+     */
+    protected void processFiles(Collection<File> files, int threads, final FileTask task) throws ProcessorException {
+        ExecutorService executor = null;
+        if (threads > 1 && files.size() > 1) {
+            executor = WorkerPool.get(threads);
+        }
+        processFiles(files, executor, task);
+    }
+
+    /**
+     * Applies the task on each file, concurrently using the given executor. Errors are collected and reported
+     * together once all files are processed.
+     *
+     * @param files    the files
+     * @param executor the executor, <code>null</code> to process the files sequentially in the current thread
+     * @param task     the task
+     * @throws ProcessorException if at least one file cannot be processed
+     */
+    protected void processFiles(Collection<File> files, ExecutorService executor, final FileTask task)
+            throws ProcessorException {
+        final List<ProcessorException> errors = Collections.synchronizedList(new ArrayList<ProcessorException>());
+        if (executor == null) {
+            for (File file : files) {
+                try {
+                    task.process(file);
+                } catch (ProcessorException e) {
+                    errors.add(e);
+                }
+            }
+        } else {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            task.process(file);
+                        } catch (ProcessorException e) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessorException("Processing interrupted", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new ProcessorException("Processing failed", e.getCause());
+                }
+            }
+        }
+
+        if (errors.size() == 1) {
+            throw errors.get(0);
+        } else if (errors.size() > 1) {
+            for (ProcessorException error : errors) {
+                getLog().error(error.getMessage());
+            }
+            throw new ProcessorException(errors.size() + " files cannot be processed - check log", errors.get(0));
+        }
+    }
+
     public static boolean isFileContainedInDirectory(File file, File dir) {
         return file.exists() && file.getAbsolutePath().startsWith(dir.getAbsolutePath());
     }
 
+    /**
+     * Checks whether the given file is a file of the output store or of the disk.
+     */
+    protected boolean exists(File file) {
+        return store == null ? file.isFile() : store.isFile(file);
+    }
+
+    /**
+     * Checks whether an output file (from the store or the disk) is contained in the given directory.
+     */
+    protected boolean isOutputContainedInDirectory(File file, File dir) {
+        return exists(file) && file.getAbsolutePath().startsWith(dir.getAbsolutePath());
+    }
+
+    /**
+     * Lists the files of a directory, including the files of the output store.
+     *
+     * @param dir        the directory
+     * @param extensions the extensions, all files if <code>null</code>
+     * @return the files
+     */
+    protected Collection<File> listFiles(File dir, String[] extensions) {
+        if (store == null) {
+            return FileUtils.listFiles(dir, extensions, true);
+        }
+        return store.listFiles(dir, extensions);
+    }
+
+    /**
+     * Reads a file, from the output store or the disk.
+     */
+    protected byte[] readFileToByteArray(File file) throws IOException {
+        return store == null ? FileUtils.readFileToByteArray(file) : store.read(file);
+    }
+
+    /**
+     * Reads a file, from the output store or the disk, using the default encoding.
+     */
+    protected String readFileToString(File file) throws IOException {
+        return store == null ? FileUtils.readFileToString(file) : new String(store.read(file));
+    }
+
+    /**
+     * Writes an output file, in the output store or on the disk, using the default encoding.
+     */
+    protected void writeOutput(File file, String content) throws IOException {
+        writeOutput(file, content.getBytes());
+    }
+
+    /**
+     * Writes an output file, in the output store or on the disk.
+     */
+    protected void writeOutput(File file, byte[] content) throws IOException {
+        if (store == null) {
+            FileUtils.writeByteArrayToFile(file, content);
+        } else {
+            store.write(file, content);
+        }
+    }
+
+    /**
+     * Deletes an output file, from the output store or from the disk.
+     */
+    protected void deleteOutput(File file) {
+        if (store == null) {
+            file.delete();
+        } else {
+            store.delete(file);
+        }
+    }
+
+    /**
+     * Copies the file <tt>file</tt> to the directory <tt>dir</tt> like {@link #copyFileToDir(File, File, File)},
+     * in the output store if any.
+     */
+    protected void copyOutput(File file, File rel, File dir) throws ProcessorException {
+        if (store == null) {
+            copyFileToDir(file, rel, dir);
+            return;
+        }
+        try {
+            store.write(computeRelativeFile(file, rel, dir), readFileToByteArray(file));
+        } catch (IOException e) {
+            throw new ProcessorException("Cannot copy file " + file.getName(), e);
+        }
+    }
+
     /**
      * Copy the file <tt>file</tt> to the directory <tt>dir</tt>, keeping the structure relative to <tt>rel</tt>
      * @throws ProcessorException
@@ -17,12 +17,17 @@ package org.nanoko.coffee.mill.processors;
 
 import org.apache.commons.io.FileUtils;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.RhinoClassCache;
 import org.nanoko.coffee.mill.utils.RhinoLauncher;
+import org.nanoko.coffee.mill.utils.RhinoScopePool;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,11 +42,17 @@ public class DustJSProcessor extends DefaultProcessor {
     private File source;
     private File destination;
 
+    /**
+     * Number of threads used to compile files.
+     */
+    private int threads;
+
     @Override
     public void configure(AbstractCoffeeMillMojo mojo, Map<String, Object> options) {
         super.configure(mojo, options);
         this.source = mojo.javaScriptDir;
         this.destination = mojo.getWorkDirectory();
+        this.threads = OptionsHelper.getInteger(options, "threads", 1);
     }
 
     @Override
@@ -51,8 +62,16 @@ public class DustJSProcessor extends DefaultProcessor {
         }
         getLog().info("Compiling dust templates");
         Collection<File> files = FileUtils.listFiles(source, new String[]{"dust"}, true);
-        for (File file : files) {
-            dust(file);
+        try {
+            processFiles(files, threads, new FileTask() {
+                public void process(File file) throws ProcessorException {
+                    if (!isUpToDate(file)) {
+                        dust(file);
+                    }
+                }
+            });
+        } finally {
+            saveManifest();
         }
     }
 
@@ -61,11 +80,10 @@ public class DustJSProcessor extends DefaultProcessor {
             File output = getOutputJSFile(input);
             RhinoLauncher launcher = initScriptBuilder();
             String content = FileUtils.readFileToString(input);
-            String compileScript =
-                    String.format("%s(%s,\"%s\");", "dust.compile", RhinoLauncher.toJSMultiLineString(content),
-                            input.getName().substring(0, input.getName().length() - ".dust".length()));
-            String result = (String) launcher.evaluate(compileScript, "dust.compile");
-            FileUtils.write(output, result);
+            String result = String.valueOf(launcher.call("dust.compile", content,
+                    input.getName().substring(0, input.getName().length() - ".dust".length())));
+            writeOutput(output, result);
+            markAsProcessed(input, output);
         } catch (IOException e) {
             getLog().error("Dust compilation failed - was not able to compile " + input.getAbsolutePath(), e);
             throw new ProcessorException("Dust compilation failed - was not able to compile " + input
@@ -79,6 +97,21 @@ public class DustJSProcessor extends DefaultProcessor {
                 && file.getName().endsWith(".dust");
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(source, "dust"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(destination, "js"));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        return Collections.singletonList(getOutputJSFile(input));
+    }
+
     @Override
     public void fileCreated(File file) throws ProcessorException {
         dust(file);
@@ -91,9 +124,10 @@ public class DustJSProcessor extends DefaultProcessor {
 
     @Override
     public void fileDeleted(File file) {
+        markAsRemoved(file);
         File theFile = getOutputJSFile(file);
-        if (theFile.exists()) {
-            theFile.delete();
+        if (exists(theFile)) {
+            deleteOutput(theFile);
         }
     }
 
@@ -105,16 +139,20 @@ public class DustJSProcessor extends DefaultProcessor {
 
     /**
      * Initialize script builder for evaluation.
+     * The Dust compiler is evaluated only once, in a shared scope.
      */
     private RhinoLauncher initScriptBuilder() {
-        try {
-            RhinoLauncher builder = null;
-            final InputStream script = getScriptAsStream();
-            builder = RhinoLauncher.newClientSideAwareChain().evaluateChain(script, DUST_SCRIPT);
-            return builder;
-        } catch (final Exception e) {
-            throw new IllegalStateException("Initialization of the Dust processing failed", e);
-        }
+        final RhinoClassCache classCache = RhinoClassCache.forMojo(mojo);
+        return RhinoScopePool.newChain(DUST_SCRIPT, classCache, new RhinoScopePool.ScopeFactory() {
+            public RhinoLauncher create(RhinoClassCache cache) {
+                try {
+                    final InputStream script = getScriptAsStream();
+                    return RhinoLauncher.newClientSideAwareChain(cache).evaluateChain(script, DUST_SCRIPT);
+                } catch (final Exception e) {
+                    throw new IllegalStateException("Initialization of the Dust processing failed", e);
+                }
+            }
+        });
     }
 
     public InputStream getScriptAsStream() {
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.processors;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The files of a directory (and its sub-directories) having one of the given extensions, such as
+ * <tt>workDir/**.js</tt>. Processors declare the files they read and write as file sets, so the watch mode can
+ * compute which processor depends on which.
+ */
+public class FileSet {
+
+    private final File directory;
+
+    private final List<String> extensions;
+
+    /**
+     * Creates the file set.
+     *
+     * @param directory  the directory
+     * @param extensions the extensions without the dot, all files are included if none is given
+     */
+    public FileSet(File directory, String... extensions) {
+        this.directory = directory == null ? null : directory.getAbsoluteFile();
+        this.extensions = Arrays.asList(extensions);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * Checks whether the given file belongs to this set.
+     *
+     * @param file the file
+     * @return <code>true</code> if the file is in the directory and has one of the extensions
+     */
+    public boolean contains(File file) {
+        if (directory == null || !isAncestor(directory, file.getAbsoluteFile())) {
+            return false;
+        }
+        if (extensions.isEmpty()) {
+            return true;
+        }
+        for (String extension : extensions) {
+            if (file.getName().endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a file can belong to both sets.
+     *
+     * @param set the other set
+     * @return <code>true</code> if one directory contains the other and the extensions are compatible
+     */
+    public boolean overlaps(FileSet set) {
+        if (directory == null || set.directory == null) {
+            return false;
+        }
+        if (!isAncestor(directory, set.directory) && !isAncestor(set.directory, directory)) {
+            return false;
+        }
+        if (extensions.isEmpty() || set.extensions.isEmpty()) {
+            return true;
+        }
+        for (String extension : extensions) {
+            if (set.extensions.contains(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAncestor(File ancestor, File file) {
+        for (File current = file; current != null; current = current.getParentFile()) {
+            if (current.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return directory + "/**" + (extensions.isEmpty() ? "" : "." + extensions);
+    }
+}
@@ -25,6 +25,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -101,6 +102,22 @@ public class HTMLCompressorProcessor extends DefaultProcessor {
                 && (file.getName().endsWith(".html") || (file.getName().endsWith(".htm")));
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(mojo.assetsDir, "html", "htm"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return getInputs();
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        // Files are compressed in place
+        return Collections.singletonList(input);
+    }
+
     @Override
     public void fileCreated(File file) throws ProcessorException {
         compress(file);
@@ -15,7 +15,6 @@
 
 package org.nanoko.coffee.mill.processors;
 
-import org.apache.commons.io.FileUtils;
 import ro.isdc.wro.extensions.processor.support.linter.JsHint;
 import ro.isdc.wro.extensions.processor.support.linter.LinterError;
 import ro.isdc.wro.extensions.processor.support.linter.LinterException;
@@ -24,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,20 +34,36 @@ public class JSHintProcessor extends DefaultProcessor {
     @Override
     public void processAll() throws ProcessorException {
         getLog().info("Checking sources with JsHint");
-        Collection<File> files = FileUtils.listFiles(mojo.getWorkDirectory(), new String[]{"js"}, true);
-        for (File file : files) {
-            List<ProcessorWarning> warnings = validate(file);
-            getLog().info("Found " + warnings.size() + " issues in " + file.getAbsolutePath());
-            for (ProcessorWarning warning: warnings) {
-                getLog().warn("In " + warning.file.getName() + " @" + warning.line + ":" + warning.character
-                        + " -> " + warning.evidence + " - " + warning.reason);
+        Collection<File> files = listFiles(mojo.getWorkDirectory(), new String[]{"js"});
+        try {
+            for (File file : files) {
+                if (isUpToDate(file)) {
+                    continue;
+                }
+                List<ProcessorWarning> warnings = validate(file);
+                getLog().info("Found " + warnings.size() + " issues in " + file.getAbsolutePath());
+                for (ProcessorWarning warning: warnings) {
+                    getLog().warn("In " + warning.file.getName() + " @" + warning.line + ":" + warning.character
+                            + " -> " + warning.evidence + " - " + warning.reason);
+                }
+                // Files with warnings are checked again, so warnings are reported by every build.
+                if (warnings.isEmpty()) {
+                    markAsProcessed(file);
+                }
             }
+        } finally {
+            saveManifest();
         }
     }
 
     @Override
     public boolean accept(File file) {
-        return file.isFile() && isFileContainedInDirectory(file, mojo.getWorkDirectory());
+        return isOutputContainedInDirectory(file, mojo.getWorkDirectory());
+    }
+
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(mojo.getWorkDirectory()));
     }
 
     @Override
@@ -65,7 +81,7 @@ public class JSHintProcessor extends DefaultProcessor {
         JsHint jshint = new JsHint();
         getLog().debug("JSHint-ing " + file.getAbsolutePath());
         try {
-            jshint.validate(FileUtils.readFileToString(file));
+            jshint.validate(readFileToString(file));
         } catch (IOException e) {
             getLog().error("Can't analyze " + file.getAbsolutePath() + " with JSHint", e);
         } catch (LinterException e) {
@@ -15,7 +15,6 @@
 
 package org.nanoko.coffee.mill.processors;
 
-import org.apache.commons.io.FileUtils;
 import ro.isdc.wro.extensions.processor.support.linter.JsLint;
 import ro.isdc.wro.extensions.processor.support.linter.LinterError;
 import ro.isdc.wro.extensions.processor.support.linter.LinterException;
@@ -24,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,7 +34,7 @@ public class JSLintProcessor extends DefaultProcessor {
     @Override
     public void processAll() throws ProcessorException {
         getLog().info("Checking sources with JsLint");
-        Collection<File> files = FileUtils.listFiles(mojo.getWorkDirectory(), new String[]{"js"}, true);
+        Collection<File> files = listFiles(mojo.getWorkDirectory(), new String[]{"js"});
         for (File file : files) {
             List<ProcessorWarning> warnings = validate(file);
             getLog().info("Found " + warnings.size() + " issues in " + file.getAbsolutePath());
@@ -47,7 +47,12 @@ public class JSLintProcessor extends DefaultProcessor {
 
     @Override
     public boolean accept(File file) {
-        return file.isFile() && isFileContainedInDirectory(file, mojo.getWorkDirectory());
+        return isOutputContainedInDirectory(file, mojo.getWorkDirectory());
+    }
+
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(mojo.getWorkDirectory()));
     }
 
     @Override
@@ -65,7 +70,7 @@ public class JSLintProcessor extends DefaultProcessor {
         JsLint jslint = new JsLint();
         getLog().debug("JSLint-ing " + file.getAbsolutePath());
         try {
-            jslint.validate(FileUtils.readFileToString(file));
+            jslint.validate(readFileToString(file));
         } catch (IOException e) {
             getLog().error("Can't analyze " + file.getAbsolutePath() + " with JSLint", e);
         } catch (LinterException e) {
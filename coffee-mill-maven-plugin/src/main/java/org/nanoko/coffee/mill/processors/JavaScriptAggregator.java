@@ -28,4 +28,9 @@ public class JavaScriptAggregator extends AggregatorProcessor {
         out.write(';');
         out.write('\n');
     }
+
+    @Override
+    public String sourceMappingComment(String sourceMap) {
+        return "//# sourceMappingURL=" + sourceMap;
+    }
 }
@@ -25,6 +25,8 @@ import org.nanoko.coffee.mill.utils.OptionsHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -63,6 +65,13 @@ public class JavaScriptFileCopyProcessor extends DefaultProcessor {
         // Create a filter for either directories or ".js" files
         IOFileFilter filter = FileFilterUtils.or(DirectoryFileFilter.DIRECTORY, jsFiles);
 
+        if (store != null) {
+            for (File file : FileUtils.listFiles(source, new String[]{"js"}, true)) {
+                copyOutput(file, source, destination);
+            }
+            return;
+        }
+
         // Copy using the filter
         try {
             FileUtils.copyDirectory(source, destination, filter);
@@ -79,21 +88,36 @@ public class JavaScriptFileCopyProcessor extends DefaultProcessor {
         return isFileContainedInDirectory(file, source)  && file.isFile()  &&  file.getName().endsWith(".js");
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(source, "js"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(destination, "js"));
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        return Collections.singletonList(computeRelativeFile(input, source, destination));
+    }
+
     public void fileCreated(File file) throws ProcessorException {
         getLog().info("Copying " + file.getAbsolutePath() + " to " + destination.getAbsolutePath());
-        copyFileToDir(file, source, destination);
+        copyOutput(file, source, destination);
     }
 
     public void fileUpdated(File file) throws ProcessorException {
         getLog().info("Copying " + file.getAbsolutePath() + " to " + destination.getAbsolutePath());
-        copyFileToDir(file, source, destination);
+        copyOutput(file, source, destination);
     }
 
     public void fileDeleted(File file) {
         File rel = computeRelativeFile(file, source, destination);
-        if (rel.isFile()) {
+        if (exists(rel)) {
             getLog().info("Deleting " + rel.getAbsolutePath());
-            rel.delete();
+            deleteOutput(rel);
         }
     }
 
@@ -16,15 +16,19 @@
 package org.nanoko.coffee.mill.processors;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.io.FileUtils;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 import org.nanoko.coffee.mill.utils.ExecUtils;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.ImageOptimizationLedger;
 import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.ProcessScheduler;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -49,10 +53,23 @@ public class JpegTranProcessor extends DefaultProcessor {
      */
     private boolean verbose;
 
+    /**
+     * The ledger of optimized images, <code>null</code> if incremental builds are disabled.
+     */
+    private ImageOptimizationLedger ledger;
+
+    /**
+     * Runs the jpegtran processes, <tt>parallelism</tt> at a time.
+     */
+    private ProcessScheduler scheduler;
+
     @Override
     public void configure(AbstractCoffeeMillMojo mojo, Map<String, Object> options) {
         super.configure(mojo, options);
 
+        scheduler = new ProcessScheduler(OptionsHelper.getInteger(options, "parallelism",
+                Runtime.getRuntime().availableProcessors()), OptionsHelper.getInteger(options, "timeout", 0), getLog());
+
         jpegTranExec = ExecUtils.findExecutableInPath(EXECUTABLE_NAME);
 
         if (jpegTranExec == null) {
@@ -62,7 +79,8 @@ public class JpegTranProcessor extends DefaultProcessor {
             getLog().info("Invoking jpegtran : " + jpegTranExec.getAbsolutePath());
         }
 
-        OptionsHelper.getBoolean(options, "verbose", false);
+        verbose = OptionsHelper.getBoolean(options, "verbose", false);
+        ledger = ImageOptimizationLedger.forMojo(mojo, jpegTranExec, "-copy none -optimize");
     }
 
     /**
@@ -80,10 +98,20 @@ public class JpegTranProcessor extends DefaultProcessor {
             return;
         }
 
-        Iterator<File> files = FileUtils.iterateFiles(mojo.workDir, new String[]{"jpg", "jpeg"}, true);
-        while (files.hasNext()) {
-            File file = files.next();
-            optimize(file);
+        Collection<File> files = FileUtils.listFiles(mojo.workDir, new String[]{"jpg", "jpeg"}, true);
+        try {
+            processFiles(files, scheduler.start(), new FileTask() {
+                public void process(File file) throws ProcessorException {
+                    // Optimized in place: the recorded hash is the one of the optimized file.
+                    if (!isUpToDate(file)) {
+                        optimizeOrRestore(file);
+                        markAsProcessed(file);
+                    }
+                }
+            });
+        } finally {
+            scheduler.stop();
+            saveManifest();
         }
     }
 
@@ -94,14 +122,52 @@ public class JpegTranProcessor extends DefaultProcessor {
                 && (file.getName().endsWith(".jpg") || file.getName().endsWith(".jpeg"));
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(mojo.workDir, "jpg", "jpeg"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return getInputs();
+    }
+
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        // Images are optimized in place
+        return Collections.singletonList(input);
+    }
+
     @Override
     public void fileCreated(File file) throws ProcessorException {
-        optimize(file);
+        optimizeOrRestore(file);
     }
 
     @Override
     public void fileUpdated(File file) throws ProcessorException {
-        optimize(file);
+        optimizeOrRestore(file);
+    }
+
+    /**
+     * Restores the optimized version of the file from the ledger if the same image was already optimized,
+     * optimizes it otherwise.
+     */
+    private void optimizeOrRestore(File file) throws ProcessorException {
+        if (ledger == null) {
+            optimize(file);
+            return;
+        }
+        try {
+            String hash = HashUtils.sha1(file);
+            if (ledger.restore(file, hash)) {
+                getLog().info(file.getName() + " restored from the optimization ledger");
+                return;
+            }
+            optimize(file);
+            ledger.store(file, hash);
+        } catch (IOException e) {
+            throw new ProcessorException("Cannot use the optimization ledger for " + file.getAbsolutePath(), e);
+        }
     }
 
     private void optimize(File file) throws ProcessorException {
@@ -119,21 +185,17 @@ public class JpegTranProcessor extends DefaultProcessor {
 
         cmdLine.addArgument("-optimize");
 
+        // Each file gets its own output file, as several files of the same directory may be optimized concurrently
+        File out = new File(dir, "__" + file.getName() + ".tmp");
         cmdLine.addArgument("-outfile");
-        cmdLine.addArgument("__out.jpeg");
+        cmdLine.addArgument(out.getName());
 
         cmdLine.addArgument(file.getName());
 
-        DefaultExecutor executor = new DefaultExecutor();
-
-        executor.setWorkingDirectory(dir);
-        executor.setExitValue(0);
         try {
-            getLog().info("Executing " + cmdLine.toString());
-            executor.execute(cmdLine);
+            scheduler.execute(cmdLine, dir);
 
             // Overwrite the original file
-            File out = new File(dir, "__out.jpeg");
             if (out.exists()) {
                 FileUtils.copyFile(out, file);
                 FileUtils.deleteQuietly(out);
@@ -16,29 +16,65 @@
 package org.nanoko.coffee.mill.processors;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.nanoko.coffee.mill.utils.HashUtils;
+import org.nanoko.coffee.mill.utils.LessImportGraph;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
+import org.nanoko.coffee.mill.utils.RhinoClassCache;
 import org.nanoko.coffee.mill.utils.RhinoLauncher;
+import org.nanoko.coffee.mill.utils.RhinoResults;
+import org.nanoko.coffee.mill.utils.RhinoScopePool;
 import ro.isdc.wro.extensions.processor.support.less.LessCss;
 import ro.isdc.wro.extensions.script.RhinoUtils;
-import ro.isdc.wro.util.WroUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Processor handling Less to CSS compilation.
  * It handles <tt>.less</tt> files from the <tt>stylesheets</tt> directory.
+ *
+ * The <tt>@import</tt> statements of Less files are resolved by the compiler relative to the importing file,
+ * through an {@link Importer}. The imports of each stylesheet are recorded in a {@link LessImportGraph}: a change
+ * of an imported file recompiles the stylesheets importing it, and the files imported by other stylesheets
+ * (partials) are not compiled on their own.
  */
 public class LessCompilationProcessor extends DefaultProcessor {
 
+    /**
+     * The <tt>@import</tt> statements, with the imported path in the first group. It is only used to find the
+     * partials before the compilation, on a content without comments.
+     */
+    private static final Pattern IMPORT = Pattern.compile(
+            "@import\\s+(?:url\\(\\s*)?[\"']?([^\"')\\s;]+)[\"']?\\s*\\)?[^;]*;");
 
     private File source;
     private File destination;
 
+    /**
+     * Number of threads used to compile files.
+     */
+    private int threads;
+
+    private LessImportGraph graph;
+
     public void tearDown() {
         // Do nothing.
     }
@@ -48,12 +84,52 @@ public class LessCompilationProcessor extends DefaultProcessor {
         super.configure(mojo, options);
         this.source = mojo.stylesheetsDir;
         this.destination = mojo.getWorkDirectory();
+        this.threads = OptionsHelper.getInteger(options, "threads", 1);
+        this.graph = LessImportGraph.forMojo(mojo);
     }
 
     public boolean accept(File file) {
         return isFileContainedInDirectory(file, source)  && file.getName().endsWith(".less")  && file.isFile();
     }
 
+    @Override
+    public List<FileSet> getInputs() {
+        return Collections.singletonList(new FileSet(source, "less"));
+    }
+
+    @Override
+    public List<FileSet> getOutputs() {
+        return Collections.singletonList(new FileSet(destination, "css"));
+    }
+
+    /**
+     * Gets the CSS files of the stylesheets recompiled when the given file changes.
+     */
+    @Override
+    protected List<File> getOutputFiles(File input) {
+        List<File> outputs = new ArrayList<File>();
+        for (File stylesheet : getAffectedStylesheets(input)) {
+            outputs.add(getOutputCSSFile(stylesheet));
+        }
+        return outputs;
+    }
+
+    /**
+     * Gets the stylesheets to recompile when the given file changes: the stylesheets importing it, and the file
+     * itself unless it is imported by another stylesheet.
+     *
+     * @param file the changed file
+     * @return the stylesheets
+     */
+    public Set<File> getAffectedStylesheets(File file) {
+        Set<File> stylesheets = new LinkedHashSet<File>();
+        Set<File> importers = graph.getImporters(file);
+        if (importers.isEmpty()) {
+            stylesheets.add(file.getAbsoluteFile());
+        }
+        stylesheets.addAll(importers);
+        return stylesheets;
+    }
 
     @Override
     public void processAll() throws ProcessorException {
@@ -61,11 +137,203 @@ public class LessCompilationProcessor extends DefaultProcessor {
             return;
         }
         Collection<File> files = FileUtils.listFiles(source, new String[]{"less"}, true);
+        final Set<File> partials = getImportedFiles(files);
+        // Hashes of the imported files, computed once per build
+        final Map<File, String> hashes = new ConcurrentHashMap<File, String>();
+        try {
+            processFiles(files, threads, new FileTask() {
+                public void process(File file) throws ProcessorException {
+                    if (!file.isFile()) {
+                        return;
+                    }
+                    if (partials.contains(file.getAbsoluteFile())) {
+                        removeStandalone(file);
+                    } else if (!isUpToDate(file, hashes)) {
+                        compile(file);
+                    }
+                }
+            });
+        } finally {
+            saveManifest();
+            graph.save();
+        }
+    }
+
+    /**
+     * Checks whether a stylesheet and all the files it imported did not change since its last compilation.
+     */
+    private boolean isUpToDate(File file, Map<File, String> hashes) throws ProcessorException {
+        Map<File, String> imports = graph.getImports(file);
+        if (manifest == null || imports == null) {
+            return false;
+        }
+        for (Map.Entry<File, String> entry : imports.entrySet()) {
+            File imported = entry.getKey();
+            String hash = hashes.get(imported);
+            if (hash == null) {
+                try {
+                    hash = exists(imported) ? HashUtils.sha1(readFileToString(imported)) : "";
+                } catch (IOException e) {
+                    throw new ProcessorException("Cannot read " + imported.getAbsolutePath(), e);
+                }
+                hashes.put(imported, hash);
+            }
+            if (!hash.equals(entry.getValue())) {
+                getLog().debug(file.getName() + " must be recompiled, " + imported.getName() + " changed");
+                return false;
+            }
+        }
+        return isUpToDate(file);
+    }
+
+    /**
+     * Gets the existing files directly imported by the given files.
+     */
+    private Set<File> getImportedFiles(Collection<File> files) throws ProcessorException {
+        Set<File> imported = new HashSet<File>();
         for (File file : files) {
-            if (file.isFile()) {
-                compile(file);
+            try {
+                Matcher matcher = IMPORT.matcher(stripComments(readFileToString(file)));
+                while (matcher.find()) {
+                    File candidate = resolveImport(file.getParentFile(), matcher.group(1));
+                    if (candidate != null && !candidate.equals(file.getAbsoluteFile()) && exists(candidate)) {
+                        imported.add(candidate);
+                    }
+                }
+            } catch (IOException e) {
+                throw new ProcessorException("Cannot read " + file.getAbsolutePath(), e);
             }
         }
+        return imported;
+    }
+
+    /**
+     * Removes the comments of a Less content, as the Less parser does: <tt>//</tt> comments are not recognized in
+     * parentheses (urls), and comment delimiters are not recognized in strings.
+     */
+    static String stripComments(String content) {
+        StringBuilder result = new StringBuilder(content.length());
+        int parentheses = 0;
+        int i = 0;
+        while (i < content.length()) {
+            char c = content.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = i + 1;
+                while (end < content.length() && content.charAt(end) != c && content.charAt(end) != '\n') {
+                    end += content.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, content.length());
+                result.append(content, i, end);
+                i = end;
+            } else if (content.startsWith("/*", i)) {
+                int end = content.indexOf("*/", i + 2);
+                i = end == -1 ? content.length() : end + 2;
+                result.append(' ');
+            } else if (parentheses == 0 && content.startsWith("//", i)) {
+                int end = content.indexOf('\n', i);
+                i = end == -1 ? content.length() : end;
+            } else {
+                if (c == '(') {
+                    parentheses++;
+                } else if (c == ')' && parentheses > 0) {
+                    parentheses--;
+                }
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Resolves an imported path, as the compiler does.
+     *
+     * @param directory the directory of the importing file
+     * @param path      the imported path
+     * @return the imported Less file, <code>null</code> if the import is left to the browser (CSS files, urls)
+     */
+    private static File resolveImport(File directory, String path) {
+        if (path.endsWith(".css") || path.contains("://")) {
+            return null;
+        }
+        if (!path.endsWith(".less")) {
+            path = path + ".less";
+        }
+        return new File(FilenameUtils.normalize(new File(directory, path).getAbsolutePath()));
+    }
+
+    /**
+     * Resolves and reads the files imported by a stylesheet during its compilation, and records them. Files are
+     * identified by an index, <tt>0</tt> being the compiled stylesheet. It is called by the <tt>compile.js</tt>
+     * script.
+     */
+    public class Importer {
+
+        private final List<File> files = new ArrayList<File>();
+
+        private final Map<File, String> imports = new LinkedHashMap<File, String>();
+
+        /**
+         * @param stylesheet the compiled stylesheet, <code>null</code> if the compiled content is not a file
+         */
+        private Importer(File stylesheet) {
+            files.add(stylesheet == null ? null : stylesheet.getAbsoluteFile());
+        }
+
+        /**
+         * Resolves an import.
+         *
+         * @param path the imported path
+         * @param from the id of the importing file
+         * @return the id of the imported file, <code>null</code> if the file does not exist
+         */
+        public String resolve(String path, String from) {
+            File importing = getFile(from);
+            File file = resolveImport(importing == null ? source : importing.getParentFile(), path);
+            if (file == null || !exists(file)) {
+                return null;
+            }
+            int id = files.indexOf(file);
+            if (id == -1) {
+                files.add(file);
+                id = files.size() - 1;
+            }
+            return Integer.toString(id);
+        }
+
+        /**
+         * Reads an imported file, and records its hash.
+         *
+         * @param id the file id
+         * @return the content
+         * @throws IOException if the file cannot be read
+         */
+        public String read(String id) throws IOException {
+            File file = getFile(id);
+            String data = readFileToString(file);
+            imports.put(file, HashUtils.sha1(data));
+            return data;
+        }
+
+        /**
+         * @return the file, <code>null</code> if unknown
+         */
+        public File getFile(String id) {
+            try {
+                return files.get(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                return null;
+            } catch (IndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the imported files, with the hash of their content
+         */
+        public Map<File, String> getImports() {
+            return imports;
+        }
     }
 
     private File getOutputCSSFile(File input) {
@@ -77,58 +345,109 @@ public class LessCompilationProcessor extends DefaultProcessor {
     private void compile(File file) throws ProcessorException {
         File out = getOutputCSSFile(file);
         getLog().info("Compiling " + file.getAbsolutePath() + " to " + out.getAbsolutePath());
+        Importer importer = new Importer(file);
         try {
-            String output = less(FileUtils.readFileToString(file));
-            FileUtils.write(out, output);
+            String output = less(readFileToString(file), importer);
+            writeOutput(out, output);
+            markAsProcessed(file, out);
         } catch (IOException e) {
             throw new ProcessorException("Cannot compile " + file.getAbsolutePath(), e);
+        } finally {
+            // Recorded even if the compilation fails, so fixing an imported file recompiles the stylesheet.
+            graph.record(file, importer.getImports());
+            for (File imported : importer.getImports().keySet()) {
+                if (graph.getImports(imported) != null) {
+                    // Was compiled on its own before being imported
+                    removeStandalone(imported);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the CSS file compiled from a file which is now imported by other stylesheets.
+     */
+    private void removeStandalone(File file) {
+        getLog().debug(file.getName() + " is imported by other stylesheets, it is not compiled on its own");
+        graph.remove(file);
+        markAsRemoved(file);
+        File css = getOutputCSSFile(file);
+        if (exists(css)) {
+            deleteOutput(css);
         }
     }
 
     @Override
     public void fileCreated(File file) throws ProcessorException {
-        compile(file);
+        fileUpdated(file);
     }
 
     @Override
     public void fileUpdated(File file) throws ProcessorException {
-        compile(file);
+        for (File stylesheet : getAffectedStylesheets(file)) {
+            compile(stylesheet);
+        }
     }
 
     @Override
     public void fileDeleted(File file) {
+        markAsRemoved(file);
+        graph.remove(file);
         File theFile = getOutputCSSFile(file);
-        if (theFile.exists()) {
-            theFile.delete();
+        if (exists(theFile)) {
+            deleteOutput(theFile);
         }
     }
 
-    public static final String DEFAULT_LESS_JS = "/less/less-1.3.0.js";
-    private static final String SCRIPT_RUN = "run.js";
-    private static final String SCRIPT_INIT = "init.js";
-
     /**
-     * Initialize script builder for evaluation.
+     * Compiles the stylesheets affected by the burst concurrently. The stylesheets importing a deleted file are
+     * recompiled too, and report the missing import.
      */
-    private RhinoLauncher initScriptBuilder() {
+    @Override
+    protected void processChanges(ChangeSet changes) throws ProcessorException {
+        Set<File> stylesheets = new LinkedHashSet<File>();
+        for (File file : changes.getFiles()) {
+            stylesheets.addAll(getAffectedStylesheets(file));
+        }
+        for (File file : changes.getDeletedFiles()) {
+            fileDeleted(file);
+            stylesheets.remove(file.getAbsoluteFile());
+        }
         try {
-            RhinoLauncher builder = null;
-            final InputStream initStream = getInitScriptAsStream();
-            final InputStream runStream = getRunScriptAsStream();
-            builder = RhinoLauncher.newClientSideAwareChain().evaluateChain(initStream, SCRIPT_INIT).evaluateChain(
-                    getScriptAsStream(), DEFAULT_LESS_JS).evaluateChain(runStream, SCRIPT_RUN);
-            return builder;
-        } catch (final Exception e) {
-            throw new IllegalStateException("Initialization of the Less processing failed", e);
+            processFiles(stylesheets, threads, new FileTask() {
+                public void process(File file) throws ProcessorException {
+                    compile(file);
+                }
+            });
+        } finally {
+            graph.save();
         }
     }
 
+    public static final String DEFAULT_LESS_JS = "/less/less-1.3.0.js";
+    private static final String SCRIPT_COMPILE = "/less/compile.js";
+    private static final String SCRIPT_INIT = "init.js";
+
     /**
-     * @return the stream of the script responsible for invoking the less transformation javascript code.
+     * Initialize script builder for evaluation.
+     * The Less compiler is evaluated only once, in a shared scope.
      */
-    private InputStream getRunScriptAsStream() {
-        //TODO use our own Less file.
-        return LessCss.class.getResourceAsStream(SCRIPT_RUN);
+    private RhinoLauncher initScriptBuilder() {
+        final RhinoClassCache classCache = RhinoClassCache.forMojo(mojo);
+        return RhinoScopePool.newChain(DEFAULT_LESS_JS, classCache, new RhinoScopePool.ScopeFactory() {
+            public RhinoLauncher create(RhinoClassCache cache) {
+                try {
+                    final InputStream initStream = getInitScriptAsStream();
+                    final InputStream compileStream = LessCompilationProcessor.class.getResourceAsStream(
+                            SCRIPT_COMPILE);
+                    return RhinoLauncher.newClientSideAwareChain(cache).evaluateChain(initStream, SCRIPT_INIT)
+                            .evaluateChain(getScriptAsStream(), DEFAULT_LESS_JS)
+                            .evaluateChain(compileStream, SCRIPT_COMPILE);
+                } catch (final Exception e) {
+                    throw new IllegalStateException("Initialization of the Less processing failed", e);
+                }
+            }
+        });
     }
 
     /**
@@ -148,17 +467,43 @@ public class LessCompilationProcessor extends DefaultProcessor {
 
 
     /**
-     * @param data css content to process.
+     * @param data css content to process, imports are relative to the <tt>stylesheets</tt> directory.
      * @return processed css content.
      */
     public String less(final String data) throws ProcessorException {
+        return less(data, new Importer(null));
+    }
+
+    private String less(final String data, Importer importer) throws ProcessorException {
         final RhinoLauncher builder = initScriptBuilder();
         try {
-            final String execute = "lessIt(" + WroUtil.toJSMultiLineString(data) + ");";
-            final Object result = builder.evaluate(execute, "lessIt");
-            return String.valueOf(result);
+            return String.valueOf(builder.call("compileLess", data, importer));
+        } catch (final JavaScriptException e) {
+            throw new ProcessorException("Less compilation failed - " + describe(e.getValue(), importer));
         } catch (final RhinoException e) {
             throw new ProcessorException("Less compilation failed - " + RhinoUtils.createExceptionMessage(e));
         }
     }
+
+    /**
+     * Describes a Less error, located in the file containing the error.
+     */
+    private static String describe(Object error, Importer importer) {
+        if (!(error instanceof Scriptable)) {
+            return String.valueOf(error);
+        }
+        Scriptable object = (Scriptable) error;
+        StringBuilder description = new StringBuilder();
+        File file = importer.getFile(RhinoResults.getString(object, "filename"));
+        if (file != null) {
+            description.append(file.getAbsolutePath());
+            int line = RhinoResults.getInt(object, "line", -1);
+            if (line > 0) {
+                description.append(':').append(line).append(':')
+                        .append(RhinoResults.getInt(object, "column", 0) + 1);
+            }
+            description.append(" - ");
+        }
+        return description.append(RhinoResults.getString(object, "message")).toString();
+    }
 }
@@ -18,6 +18,7 @@ package org.nanoko.coffee.mill.processors;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
 
 import java.io.File;
+import java.util.List;
 import java.util.Map;
 
 public interface Processor {
@@ -37,6 +38,30 @@ public interface Processor {
 
     public void fileDeleted(File file) throws ProcessorException;
 
+    /**
+     * Processes a burst of changes at once. Only the changes of the files accepted by the processor are given.
+     *
+     * @param changes the changes, not empty
+     * @return the changes of the files written by the processor, so they can be propagated to the processors
+     * reading them
+     * @throws ProcessorException if the changes cannot be processed
+     */
+    public ChangeSet filesChanged(ChangeSet changes) throws ProcessorException;
+
+    /**
+     * Gets the files read by the processor.
+     *
+     * @return the input file sets, empty if unknown
+     */
+    public List<FileSet> getInputs();
+
+    /**
+     * Gets the files written by the processor.
+     *
+     * @return the output file sets, empty if the processor does not write any file
+     */
+    public List<FileSet> getOutputs();
+
     class ProcessorException extends Exception {
         public ProcessorException(String message) {
             super(message);
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A source map (version 3) of an aggregated file. An aggregate is a sequence of sections, each section being the
+ * content of a source file. Each line of a section is mapped to the same line of its source file.
+ *
+ * @see <a href="https://sourcemaps.info/spec.html">Source Map Revision 3</a>
+ */
+public class AggregateSourceMap {
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    private final List<Section> sections = new ArrayList<Section>();
+
+    /**
+     * Adds a section.
+     *
+     * @param source the source file
+     * @param line   the first line of the section in the aggregate (0-based)
+     * @param lines  the number of lines of the section
+     */
+    public void add(File source, int line, int lines) {
+        sections.add(new Section(source, line, lines));
+    }
+
+    /**
+     * Writes the source map. Sources are referenced relatively to the source map location.
+     *
+     * @param map       the source map file
+     * @param generated the aggregated file
+     * @throws IOException if the map cannot be written
+     */
+    public void write(File map, File generated) throws IOException {
+        File tmp = new File(map.getParentFile(), map.getName() + ".tmp");
+        FileUtils.write(tmp, toJSON(map.getParentFile(), generated.getName()), "UTF-8");
+        if (!tmp.renameTo(map)) {
+            FileUtils.deleteQuietly(map);
+            if (!tmp.renameTo(map)) {
+                FileUtils.deleteQuietly(tmp);
+                throw new IOException("Cannot write " + map.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Computes the JSON representation of the map.
+     *
+     * @param directory the directory containing the map, sources are relative to this directory
+     * @param file      the name of the aggregated file
+     * @return the JSON document
+     */
+    public String toJSON(File directory, String file) {
+        List<String> sources = new ArrayList<String>();
+        StringBuilder mappings = new StringBuilder();
+        int line = 0;
+        int previousSource = 0;
+        int previousSourceLine = 0;
+        for (Section section : sections) {
+            String path = relativize(directory, section.source);
+            int source = sources.indexOf(path);
+            if (source == -1) {
+                source = sources.size();
+                sources.add(path);
+            }
+            for (int i = 0; i < section.lines; i++) {
+                while (line < section.line + i) {
+                    mappings.append(';');
+                    line++;
+                }
+                // Generated column, source, source line and source column, relative to the previous segment.
+                encode(mappings, 0);
+                encode(mappings, source - previousSource);
+                encode(mappings, i - previousSourceLine);
+                encode(mappings, 0);
+                previousSource = source;
+                previousSourceLine = i;
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        // lineCount is not part of the final specification, but is required by some consumers (Google Closure).
+        json.append("{\"version\":3,\"file\":\"").append(escape(file)).append("\",\"lineCount\":")
+                .append(line + 1).append(",\"sources\":[");
+        for (int i = 0; i < sources.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(escape(sources.get(i))).append('"');
+        }
+        json.append("],\"names\":[],\"mappings\":\"").append(mappings).append("\"}");
+        return json.toString();
+    }
+
+    /**
+     * Computes the path of a file relative to a directory, using '/' as separator.
+     */
+    public static String relativize(File directory, File file) {
+        String[] from = directory.getAbsoluteFile().toURI().normalize().getPath().split("/");
+        String[] to = file.getAbsoluteFile().toURI().normalize().getPath().split("/");
+        int common = 0;
+        while (common < from.length && common < to.length - 1 && from[common].equals(to[common])) {
+            common++;
+        }
+        StringBuilder path = new StringBuilder();
+        for (int i = common; i < from.length; i++) {
+            path.append("../");
+        }
+        for (int i = common; i < to.length; i++) {
+            path.append(to[i]);
+            if (i < to.length - 1) {
+                path.append('/');
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * Appends the Base64 VLQ representation of the given value.
+     */
+    static void encode(StringBuilder builder, int value) {
+        int vlq = value < 0 ? ((-value) << 1) + 1 : value << 1;
+        do {
+            int digit = vlq & 31;
+            vlq >>>= 5;
+            if (vlq > 0) {
+                digit |= 32;
+            }
+            builder.append(BASE64[digit]);
+        } while (vlq > 0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static class Section {
+        private final File source;
+        private final int line;
+        private final int lines;
+
+        private Section(File source, int line, int lines) {
+            this.source = source;
+            this.line = line;
+            this.lines = lines;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records, for each processor and each processed input, the content hash of the input and the produced outputs.
+ * Processors use it to skip the inputs that did not change since the last build.
+ *
+ * The manifest is stored in <tt>target/coffee-mill-cache/manifest.bin</tt>. Entries are keyed by a processor key
+ * (generally the processor class and a fingerprint of its options) and the input path, so changing the options
+ * of a processor invalidates its entries. An input is considered unchanged if its length and last modification
+ * date did not change, or, if they did, if its content hash is the same.
+ */
+public class BuildManifest {
+
+    public static final String MANIFEST_FILE = "coffee-mill-cache/manifest.bin";
+
+    private static final Logger LOG = LoggerFactory.getLogger(BuildManifest.class);
+
+    /**
+     * The manifests already loaded, by file. Mojos of the same build share the same instance.
+     */
+    private static final Map<File, BuildManifest> MANIFESTS = new HashMap<File, BuildManifest>();
+
+    private final File file;
+
+    private HashMap<String, Entry> entries;
+
+    private boolean dirty;
+
+    private BuildManifest(File file) {
+        this.file = file;
+        this.entries = load(file);
+    }
+
+    /**
+     * @param mojo the mojo
+     * @return the manifest of the mojo's project, <code>null</code> if incremental builds are disabled.
+     */
+    public static BuildManifest forMojo(AbstractCoffeeMillMojo mojo) {
+        if (mojo == null || !mojo.incremental || mojo.buildDirectory == null) {
+            return null;
+        }
+        File file = new File(mojo.buildDirectory, MANIFEST_FILE).getAbsoluteFile();
+        synchronized (MANIFESTS) {
+            BuildManifest manifest = MANIFESTS.get(file);
+            if (manifest == null) {
+                manifest = new BuildManifest(file);
+                MANIFESTS.put(file, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Checks whether the given input was already processed by the processor identified by the given key, and
+     * did not change since. The produced outputs must still exist.
+     *
+     * @param key   the processor key
+     * @param input the input file
+     * @return <code>true</code> if the input can be skipped.
+     */
+    public synchronized boolean isUpToDate(String key, File input) {
+        Entry entry = entries.get(key + ":" + input.getAbsolutePath());
+        if (entry == null || !input.isFile()) {
+            return false;
+        }
+        for (String output : entry.outputs) {
+            if (!new File(output).isFile()) {
+                return false;
+            }
+        }
+        if (entry.length == input.length() && entry.lastModified == input.lastModified()) {
+            return true;
+        }
+        try {
+            if (entry.hash.equals(HashUtils.sha1(input))) {
+                // Touched but not modified
+                entry.length = input.length();
+                entry.lastModified = input.lastModified();
+                dirty = true;
+                return true;
+            }
+        } catch (IOException e) {
+            LOG.debug("Cannot compute the hash of " + input.getAbsolutePath(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Records that the given input was processed by the processor identified by the given key.
+     *
+     * @param key     the processor key
+     * @param input   the input file
+     * @param outputs the produced files
+     */
+    public synchronized void record(String key, File input, File... outputs) {
+        try {
+            Entry entry = new Entry();
+            entry.length = input.length();
+            entry.lastModified = input.lastModified();
+            entry.hash = HashUtils.sha1(input);
+            for (File output : outputs) {
+                entry.outputs.add(output.getAbsolutePath());
+            }
+            entries.put(key + ":" + input.getAbsolutePath(), entry);
+            dirty = true;
+        } catch (IOException e) {
+            LOG.debug("Cannot compute the hash of " + input.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Forgets the given input.
+     *
+     * @param key   the processor key
+     * @param input the input file
+     */
+    public synchronized void remove(String key, File input) {
+        if (entries.remove(key + ":" + input.getAbsolutePath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the manifest if it was modified. Failures are logged, the next build will just process more files.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        ObjectOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeObject(entries);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                FileUtils.deleteQuietly(file);
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + tmp.getAbsolutePath());
+                }
+            }
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn("Cannot write the build manifest " + file.getAbsolutePath() + " - " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, Entry> load(File file) {
+        if (!file.isFile()) {
+            return new HashMap<String, Entry>();
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return (HashMap<String, Entry>) in.readObject();
+        } catch (Exception e) {
+            // Corrupted or incompatible manifest, just start from scratch.
+            LOG.info("Ignoring the build manifest " + file.getAbsolutePath() + " - " + e.getMessage());
+            return new HashMap<String, Entry>();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long length;
+        long lastModified;
+        String hash;
+        List<String> outputs = new ArrayList<String>();
+    }
+}
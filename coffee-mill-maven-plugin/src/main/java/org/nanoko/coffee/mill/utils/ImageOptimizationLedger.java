@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the optimized version of the images processed by an external optimizer (optipng, jpegtran), so an image
+ * already optimized by a previous build is restored instead of being optimized again.
+ *
+ * Optimized images are stored in <tt>target/coffee-mill-cache/images</tt>, in a directory identifying the tool
+ * and its settings, and named after the hash of the original image. The tool is identified by the path, size and
+ * modification date of its executable, which changes when the tool is upgraded. An image that is already the
+ * result of an optimization is recorded with a marker, so it is not optimized twice either.
+ */
+public class ImageOptimizationLedger {
+
+    public static final String CACHE_DIRECTORY = "coffee-mill-cache/images";
+
+    private static final String OPTIMIZED_MARKER = ".optimized";
+
+    private final File directory;
+
+    public ImageOptimizationLedger(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param mojo       the mojo
+     * @param executable the optimizer executable
+     * @param settings   the optimizer settings impacting the result (level...)
+     * @return the ledger to use, <code>null</code> if incremental builds are disabled.
+     */
+    public static ImageOptimizationLedger forMojo(AbstractCoffeeMillMojo mojo, File executable, String settings) {
+        if (mojo == null || !mojo.incremental || mojo.buildDirectory == null) {
+            return null;
+        }
+        String tool = executable.getAbsolutePath() + "|" + executable.length() + "|" + executable.lastModified()
+                + "|" + settings;
+        return new ImageOptimizationLedger(new File(mojo.buildDirectory,
+                CACHE_DIRECTORY + File.separator + executable.getName() + "-" + HashUtils.sha1(tool)));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Restores the optimized version of the given image if known.
+     *
+     * @param image the image, replaced by its optimized version
+     * @param hash  the hash of the image
+     * @return <code>true</code> if the image is now optimized, <code>false</code> if it must be optimized.
+     * @throws IOException if the image cannot be restored
+     */
+    public boolean restore(File image, String hash) throws IOException {
+        if (new File(directory, hash + OPTIMIZED_MARKER).isFile()) {
+            return true;
+        }
+        File optimized = new File(directory, hash);
+        if (!optimized.isFile()) {
+            return false;
+        }
+        FileUtils.copyFile(optimized, image, false);
+        return true;
+    }
+
+    /**
+     * Records the optimized version of an image.
+     *
+     * @param image        the optimized image
+     * @param originalHash the hash of the image before optimization
+     * @throws IOException if the image cannot be stored
+     */
+    public void store(File image, String originalHash) throws IOException {
+        directory.mkdirs();
+        String hash = HashUtils.sha1(image);
+        if (!hash.equals(originalHash)) {
+            File tmp = new File(directory, originalHash + "-" + System.nanoTime() + ".tmp");
+            FileUtils.copyFile(image, tmp, false);
+            File target = new File(directory, originalHash);
+            if (!tmp.renameTo(target)) {
+                // Already stored by another build.
+                FileUtils.deleteQuietly(tmp);
+            }
+        }
+        FileUtils.touch(new File(directory, hash + OPTIMIZED_MARKER));
+    }
+}
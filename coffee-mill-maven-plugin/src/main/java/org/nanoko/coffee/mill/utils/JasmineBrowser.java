@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.IncorrectnessListener;
+import com.gargoylesoftware.htmlunit.NicelyResynchronizingAjaxController;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.github.searls.jasmine.model.JasmineResult;
+import com.github.searls.jasmine.runner.SpecRunnerExecutor;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A headless browser running Jasmine spec runners, kept alive between the runs.
+ *
+ * The Jasmine Maven Plugin boots a new HtmlUnit driver for each execution and quits it at the end. Here the driver
+ * (and its JavaScript engine) is created once and reused, only the page is reloaded. Runners must use the
+ * {@link com.github.searls.jasmine.runner.ReporterType#JsApiReporter} reporter.
+ */
+public class JasmineBrowser {
+
+    private static final String FINISHED = "return (window.reporter === undefined) ? false : window.reporter.finished";
+
+    private static final long POLL_PERIOD = 50;
+
+    private final Log log;
+
+    private HtmlUnitDriver driver;
+
+    private String buildReport;
+
+    private String createJunitXml;
+
+    public JasmineBrowser(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Runs a spec runner.
+     *
+     * @param runner      the URL of the runner
+     * @param junitReport the JUnit report to write, <code>null</code> to skip the report
+     * @param timeout     the maximum duration of the run in seconds
+     * @param format      the format of the console report (<tt>documentation</tt> or <tt>progress</tt>)
+     * @return the result
+     * @throws IOException      if the report cannot be written
+     * @throws TimeoutException if the specs did not finish in time
+     */
+    public synchronized JasmineResult run(URL runner, File junitReport, int timeout, String format)
+            throws IOException, TimeoutException {
+        boolean completed = false;
+        try {
+            HtmlUnitDriver browser = getDriver();
+            browser.get(runner.toString());
+            long end = System.currentTimeMillis() + timeout * 1000L;
+            while (!Boolean.TRUE.equals(browser.executeScript(FINISHED))) {
+                if (System.currentTimeMillis() > end) {
+                    throw new TimeoutException("The Jasmine specs did not finish within " + timeout + " seconds");
+                }
+                try {
+                    Thread.sleep(POLL_PERIOD);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TimeoutException("Interrupted while waiting for the Jasmine specs");
+                }
+            }
+
+            JasmineResult result = new JasmineResult();
+            result.setDetails(String.valueOf(browser.executeScript(getBuildReport()
+                    + "return jasmineMavenPlugin.printReport(window.reporter,{format:'" + format + "'});")));
+            if (junitReport != null) {
+                FileUtils.writeStringToFile(junitReport, String.valueOf(browser.executeScript(getCreateJunitXml()
+                        + "return junitXmlReporter.report(window.reporter,false);")), "UTF-8");
+            }
+            // Releases the page, the browser stays warm
+            browser.get("about:blank");
+            completed = true;
+            return result;
+        } finally {
+            if (!completed) {
+                // The page may still be running, start from a new browser next time
+                quit();
+            }
+        }
+    }
+
+    private HtmlUnitDriver getDriver() {
+        if (driver == null) {
+            log.debug("Starting the headless browser");
+            driver = new HtmlUnitDriver(BrowserVersion.FIREFOX_3) {
+                @Override
+                protected WebClient modifyWebClient(WebClient client) {
+                    client.setAjaxController(new NicelyResynchronizingAjaxController());
+                    client.setIncorrectnessListener(new IncorrectnessListener() {
+                        public void notify(String message, Object origin) {
+                            // Ignored, too verbose
+                        }
+                    });
+                    return client;
+                }
+            };
+            driver.setJavascriptEnabled(true);
+        }
+        return driver;
+    }
+
+    private String getBuildReport() throws IOException {
+        if (buildReport == null) {
+            buildReport = load(SpecRunnerExecutor.BUILD_REPORT_JS);
+        }
+        return buildReport;
+    }
+
+    private String getCreateJunitXml() throws IOException {
+        if (createJunitXml == null) {
+            createJunitXml = load(SpecRunnerExecutor.CREATE_JUNIT_XML);
+        }
+        return createJunitXml;
+    }
+
+    private static String load(String resource) throws IOException {
+        InputStream in = SpecRunnerExecutor.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Cannot find " + resource + " in the Jasmine Maven Plugin");
+        }
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stops the browser. The next run starts a new one.
+     */
+    public synchronized void quit() {
+        if (driver != null) {
+            try {
+                driver.quit();
+            } catch (RuntimeException e) {
+                log.debug("Cannot stop the headless browser", e);
+            }
+            driver = null;
+        }
+    }
+}
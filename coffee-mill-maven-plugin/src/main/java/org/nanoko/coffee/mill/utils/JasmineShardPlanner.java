@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Splits the spec files into groups of similar durations, so the groups can run concurrently.
+ *
+ * The duration of each spec file is estimated from the previous runs, recorded in a properties file of the build
+ * directory. A group only gives its total duration, which is split between its files according to their previous
+ * estimates. Unknown files are estimated from their size.
+ */
+public class JasmineShardPlanner {
+
+    public static final String HISTORY_FILE = "jasmine-durations.properties";
+
+    /**
+     * The estimated duration of a byte of spec, in milliseconds, when there is no history.
+     */
+    private static final double DEFAULT_MS_PER_BYTE = 0.01;
+
+    private final File history;
+
+    private final Properties durations = new Properties();
+
+    /**
+     * Creates the planner and loads the history.
+     *
+     * @param history the history file, created if missing
+     */
+    public JasmineShardPlanner(File history) {
+        this.history = history;
+        if (history.isFile()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(history);
+                durations.load(in);
+            } catch (IOException e) {
+                // Starts from scratch
+                durations.clear();
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Gets the estimated duration of a spec file.
+     *
+     * @param spec the spec file
+     * @return the duration in milliseconds
+     */
+    public double getEstimate(File spec) {
+        String duration = durations.getProperty(spec.getAbsolutePath());
+        if (duration != null) {
+            try {
+                return Double.parseDouble(duration);
+            } catch (NumberFormatException e) {
+                // Estimated from the size
+            }
+        }
+        return Math.max(1, spec.length() * DEFAULT_MS_PER_BYTE);
+    }
+
+    /**
+     * Splits the specs into groups. The longest specs are assigned first, each one to the group with the smallest
+     * estimated duration. Empty groups are not returned.
+     *
+     * @param specs  the specs
+     * @param shards the maximum number of groups
+     * @return the groups, the files of each group keep the order of <tt>specs</tt>
+     */
+    public List<List<File>> split(final List<File> specs, int shards) {
+        List<File> sorted = new ArrayList<File>(specs);
+        Collections.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Double.compare(getEstimate(b), getEstimate(a));
+            }
+        });
+
+        int count = Math.max(1, Math.min(shards, specs.size()));
+        List<List<File>> groups = new ArrayList<List<File>>();
+        double[] loads = new double[count];
+        for (int i = 0; i < count; i++) {
+            groups.add(new ArrayList<File>());
+        }
+        for (File spec : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            groups.get(lightest).add(spec);
+            loads[lightest] += getEstimate(spec);
+        }
+
+        Comparator<File> original = new Comparator<File>() {
+            public int compare(File a, File b) {
+                return specs.indexOf(a) - specs.indexOf(b);
+            }
+        };
+        List<List<File>> result = new ArrayList<List<File>>();
+        for (List<File> group : groups) {
+            if (!group.isEmpty()) {
+                Collections.sort(group, original);
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the duration of a group.
+     *
+     * @param group    the specs of the group
+     * @param duration the duration of the group in milliseconds
+     */
+    public synchronized void record(List<File> group, long duration) {
+        double total = 0;
+        for (File spec : group) {
+            total += getEstimate(spec);
+        }
+        for (File spec : group) {
+            double share = total == 0 ? (double) duration / group.size() : duration * getEstimate(spec) / total;
+            durations.setProperty(spec.getAbsolutePath(), Double.toString(share));
+        }
+    }
+
+    /**
+     * Writes the history.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        history.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(history);
+        try {
+            durations.store(out, "Duration of the Jasmine spec files in milliseconds");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
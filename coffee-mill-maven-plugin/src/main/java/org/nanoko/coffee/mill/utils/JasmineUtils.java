@@ -16,17 +16,38 @@
 package org.nanoko.coffee.mill.utils;
 
 import com.github.searls.jasmine.AbstractJasmineMojo;
+import com.github.searls.jasmine.io.scripts.AbstractScriptResolver;
+import com.github.searls.jasmine.model.JasmineResult;
+import com.github.searls.jasmine.runner.ReporterType;
+import com.github.searls.jasmine.runner.SpecRunnerHtmlGeneratorFactory;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.nanoko.coffee.mill.InjectionHelper;
 import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Some helper methods related to Jasmine and the Jasmine Maven Plugin.
@@ -34,6 +55,11 @@ import java.util.List;
 public class JasmineUtils {
     public static final String TEST_JASMINE_XML = "TEST-jasmine.xml";
 
+    /**
+     * The maximum duration of a spec execution in seconds.
+     */
+    public static final int TIMEOUT = 300;
+
     public static void prepareJasmineMojo(AbstractCoffeeMillMojo mill, AbstractJasmineMojo mojo,
                                           List<String> aggregation) {
         MavenProject project = mill.project;
@@ -101,7 +127,7 @@ public class JasmineUtils {
 
         // TODO Parameter.
         InjectionHelper.inject(mojo, AbstractJasmineMojo.class, "timeout",
-                300);
+                TIMEOUT);
 
 
     }
@@ -191,4 +217,162 @@ public class JasmineUtils {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Lists the scripts of a directory and of its sub-directories, sorted by path.
+     *
+     * @param directory the directory
+     * @return the <tt>.js</tt> files, empty if the directory does not exist
+     */
+    public static List<File> listScripts(File directory) {
+        List<File> scripts = new ArrayList<File>();
+        if (directory.isDirectory()) {
+            scripts.addAll(FileUtils.listFiles(directory, new String[]{"js"}, true));
+            Collections.sort(scripts);
+        }
+        return scripts;
+    }
+
+    /**
+     * Runs specs in the given browser, without copying the sources and the specs: the runner references them in
+     * place. The runner and the report are written in <tt>directory</tt>, the preloaded sources must be in this
+     * directory (see {@link #prepareJasmineMojo(AbstractCoffeeMillMojo, AbstractJasmineMojo, List)}).
+     *
+     * @param mill       the mojo
+     * @param jasmine    the configured Jasmine mojo
+     * @param browser    the browser
+     * @param sources    the sources, in loading order
+     * @param specs      the specs
+     * @param directory  the directory receiving the runner and the report
+     * @param reportName the name of the JUnit report
+     * @throws MojoExecutionException if the specs cannot be run
+     * @throws MojoFailureException   if a spec failed
+     */
+    public static void runSpecs(AbstractCoffeeMillMojo mill, AbstractJasmineMojo jasmine, JasmineBrowser browser,
+                                Collection<File> sources, Collection<File> specs, File directory, String reportName)
+            throws MojoExecutionException, MojoFailureException {
+        JasmineResult result = executeSpecs(jasmine, browser, sources, specs, directory, "SpecRunner.html",
+                reportName);
+        mill.getLog().info("\n" + result.getDetails());
+        if (!result.didPass()) {
+            throw new MojoFailureException("There were Jasmine spec failures.");
+        }
+    }
+
+    /**
+     * Runs specs in the given browser like {@link #runSpecs(AbstractCoffeeMillMojo, AbstractJasmineMojo,
+     * JasmineBrowser, Collection, Collection, File, String)}, but does not fail if a spec failed.
+     *
+     * @param jasmine    the configured Jasmine mojo
+     * @param browser    the browser
+     * @param sources    the sources, in loading order
+     * @param specs      the specs
+     * @param directory  the directory receiving the runner and the report
+     * @param runnerName the name of the runner
+     * @param reportName the name of the JUnit report
+     * @return the result
+     * @throws MojoExecutionException if the specs cannot be run
+     */
+    public static JasmineResult executeSpecs(AbstractJasmineMojo jasmine, JasmineBrowser browser,
+                                             Collection<File> sources, Collection<File> specs, File directory,
+                                             String runnerName, String reportName) throws MojoExecutionException {
+        final Set<String> scripts = new LinkedHashSet<String>();
+        if (jasmine.getPreloadSources() != null) {
+            for (String preload : jasmine.getPreloadSources()) {
+                scripts.add(new File(directory, preload).toURI().toString());
+            }
+        }
+        for (File file : sources) {
+            scripts.add(file.toURI().toString());
+        }
+        for (File file : specs) {
+            scripts.add(file.toURI().toString());
+        }
+        AbstractScriptResolver resolver = new AbstractScriptResolver() {
+            @Override
+            public Set<String> getAllScripts() {
+                return scripts;
+            }
+
+            public void resolveScripts() throws IOException { }
+        };
+
+        try {
+            String html = new SpecRunnerHtmlGeneratorFactory().create(ReporterType.JsApiReporter, jasmine, resolver)
+                    .generate();
+            File runner = new File(directory, runnerName);
+            FileUtils.writeStringToFile(runner, html, "UTF-8");
+            return browser.run(runner.toURI().toURL(), new File(directory, reportName), TIMEOUT, "documentation");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot run the Jasmine specs", e);
+        } catch (TimeoutException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Merges JUnit reports into a single test suite. The counters of the suites are summed.
+     *
+     * @param reports the reports, missing reports are ignored
+     * @param merged  the merged report
+     * @throws IOException if a report cannot be read or the merged report cannot be written
+     */
+    public static void mergeJunitReports(List<File> reports, File merged) throws IOException {
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            Document result = null;
+            Element suite = null;
+            for (File report : reports) {
+                if (!report.isFile()) {
+                    continue;
+                }
+                Element root = builder.parse(report).getDocumentElement();
+                if (result == null) {
+                    result = root.getOwnerDocument();
+                    suite = root;
+                    continue;
+                }
+                for (String counter : new String[]{"tests", "failures", "errors", "skipped"}) {
+                    suite.setAttribute(counter, Integer.toString(getInt(suite, counter) + getInt(root, counter)));
+                }
+                if (suite.hasAttribute("time") || root.hasAttribute("time")) {
+                    suite.setAttribute("time", Double.toString(getDouble(suite, "time") + getDouble(root, "time")));
+                }
+                NodeList children = root.getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    if (children.item(i) instanceof Element) {
+                        suite.appendChild(result.importNode(children.item(i), true));
+                    }
+                }
+            }
+            if (result == null) {
+                return;
+            }
+            merged.getParentFile().mkdirs();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(result),
+                    new StreamResult(merged));
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Cannot merge the JUnit reports: " + e.getMessage());
+        } catch (SAXException e) {
+            throw new IOException("Cannot merge the JUnit reports: " + e.getMessage());
+        } catch (TransformerException e) {
+            throw new IOException("Cannot merge the JUnit reports: " + e.getMessage());
+        }
+    }
+
+    private static int getInt(Element element, String attribute) {
+        try {
+            return Integer.parseInt(element.getAttribute(attribute));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double getDouble(Element element, String attribute) {
+        try {
+            return Double.parseDouble(element.getAttribute(attribute));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
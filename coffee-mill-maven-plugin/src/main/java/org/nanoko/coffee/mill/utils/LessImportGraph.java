@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Records the files imported by each compiled Less stylesheet (transitively), with the hash of their content at
+ * compilation time. It gives the stylesheets to recompile when an imported file changes, and the files which are
+ * only imported (partials) and must not be compiled on their own.
+ *
+ * The graph is stored in <tt>target/coffee-mill-cache/less-imports.properties</tt>: each stylesheet path is
+ * associated with the lines <tt>hash path</tt> of its imports.
+ */
+public class LessImportGraph {
+
+    public static final String GRAPH_FILE = "coffee-mill-cache/less-imports.properties";
+
+    private static final Logger LOG = LoggerFactory.getLogger(LessImportGraph.class);
+
+    /**
+     * The graph file, <code>null</code> if the graph is kept in memory only.
+     */
+    private final File file;
+
+    private final Map<File, Map<File, String>> imports = new HashMap<File, Map<File, String>>();
+
+    private boolean dirty;
+
+    /**
+     * Creates the graph and loads it.
+     *
+     * @param file the graph file, <code>null</code> to keep the graph in memory only
+     */
+    public LessImportGraph(File file) {
+        this.file = file;
+        if (file != null && file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * @param mojo the mojo
+     * @return the graph of the mojo's project, persisted only if incremental builds are enabled
+     */
+    public static LessImportGraph forMojo(AbstractCoffeeMillMojo mojo) {
+        if (mojo == null || !mojo.incremental || mojo.buildDirectory == null) {
+            return new LessImportGraph(null);
+        }
+        return new LessImportGraph(new File(mojo.buildDirectory, GRAPH_FILE).getAbsoluteFile());
+    }
+
+    /**
+     * Records the imports of a compiled stylesheet.
+     *
+     * @param stylesheet the stylesheet
+     * @param hashes     the imported files, with the hash of the content used by the compilation
+     */
+    public synchronized void record(File stylesheet, Map<File, String> hashes) {
+        Map<File, String> copy = new LinkedHashMap<File, String>();
+        for (Map.Entry<File, String> entry : hashes.entrySet()) {
+            copy.put(entry.getKey().getAbsoluteFile(), entry.getValue());
+        }
+        imports.put(stylesheet.getAbsoluteFile(), copy);
+        dirty = true;
+    }
+
+    /**
+     * Forgets a stylesheet.
+     *
+     * @param stylesheet the stylesheet
+     */
+    public synchronized void remove(File stylesheet) {
+        if (imports.remove(stylesheet.getAbsoluteFile()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Gets the imports of a stylesheet.
+     *
+     * @param stylesheet the stylesheet
+     * @return the imported files with their hash at compilation time, <code>null</code> if the stylesheet was
+     * not compiled
+     */
+    public synchronized Map<File, String> getImports(File stylesheet) {
+        Map<File, String> hashes = imports.get(stylesheet.getAbsoluteFile());
+        return hashes == null ? null : Collections.unmodifiableMap(new LinkedHashMap<File, String>(hashes));
+    }
+
+    /**
+     * Gets the stylesheets importing, directly or not, the given file.
+     *
+     * @param imported the imported file
+     * @return the importing stylesheets
+     */
+    public synchronized Set<File> getImporters(File imported) {
+        File key = imported.getAbsoluteFile();
+        Set<File> importers = new LinkedHashSet<File>();
+        for (Map.Entry<File, Map<File, String>> entry : imports.entrySet()) {
+            if (entry.getValue().containsKey(key)) {
+                importers.add(entry.getKey());
+            }
+        }
+        return importers;
+    }
+
+    /**
+     * Checks whether a file is imported by a compiled stylesheet.
+     */
+    public boolean isImported(File file) {
+        return !getImporters(file).isEmpty();
+    }
+
+    /**
+     * Writes the graph if it was modified. Failures are logged, the next build will just compile more files.
+     */
+    public synchronized void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<File, Map<File, String>> entry : imports.entrySet()) {
+            StringBuilder value = new StringBuilder();
+            for (Map.Entry<File, String> imported : entry.getValue().entrySet()) {
+                value.append(imported.getValue()).append(' ').append(imported.getKey().getPath()).append('\n');
+            }
+            properties.setProperty(entry.getKey().getPath(), value.toString());
+        }
+        OutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new FileOutputStream(file);
+            properties.store(out, "Files imported by the Less stylesheets");
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn("Cannot write the Less import graph " + file.getAbsolutePath() + " - " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private void load() {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            // Starts from scratch, all the stylesheets are compiled.
+            LOG.info("Ignoring the Less import graph " + file.getAbsolutePath() + " - " + e.getMessage());
+            return;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        for (Object stylesheet : properties.keySet()) {
+            Map<File, String> hashes = new LinkedHashMap<File, String>();
+            for (String line : properties.getProperty((String) stylesheet).split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    hashes.put(new File(line.substring(space + 1)), line.substring(0, space));
+                }
+            }
+            imports.put(new File((String) stylesheet), hashes);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the minified version of JavaScript and CSS fragments, so a fragment already minified by a previous build
+ * is not minified again.
+ *
+ * Minified fragments are stored in <tt>target/coffee-mill-cache/minified</tt>, in a directory identifying the
+ * minifier and its settings, and named after the hash of the original fragment. A fragment can have several
+ * results, identified by a suffix (<tt>.js</tt>, <tt>.js.map</tt>...).
+ */
+public class MinificationCache {
+
+    public static final String CACHE_DIRECTORY = "coffee-mill-cache/minified";
+
+    private final File directory;
+
+    public MinificationCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param mojo     the mojo
+     * @param minifier the minifier name
+     * @param settings the minifier settings impacting the result (level, source maps...)
+     * @return the cache to use, <code>null</code> if incremental builds are disabled.
+     */
+    public static MinificationCache forMojo(AbstractCoffeeMillMojo mojo, String minifier, String settings) {
+        if (mojo == null || !mojo.incremental || mojo.buildDirectory == null) {
+            return null;
+        }
+        return inDirectory(new File(mojo.buildDirectory, CACHE_DIRECTORY), minifier, settings);
+    }
+
+    /**
+     * @param root     the directory containing the caches of all the minifiers
+     * @param minifier the minifier name
+     * @param settings the minifier settings impacting the result (level, source maps...)
+     * @return the cache of the minifier
+     */
+    public static MinificationCache inDirectory(File root, String minifier, String settings) {
+        // The plugin version identifies the minifier version.
+        String key = MinificationCache.class.getPackage().getImplementationVersion() + "|" + settings;
+        return new MinificationCache(new File(root, minifier + "-" + HashUtils.sha1(key)));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets a minified fragment.
+     *
+     * @param hash   the hash of the original fragment
+     * @param suffix the suffix of the result
+     * @return the minified content, <code>null</code> if unknown
+     */
+    public String get(String hash, String suffix) {
+        File file = new File(directory, hash + suffix);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFileToString(file, "UTF-8");
+        } catch (IOException e) {
+            // Minified again
+            return null;
+        }
+    }
+
+    /**
+     * Records a minified fragment. The file is written to a temporary file first, so concurrent builds never read
+     * a partially written fragment.
+     *
+     * @param hash    the hash of the original fragment
+     * @param suffix  the suffix of the result
+     * @param content the minified content
+     * @throws IOException if the fragment cannot be stored
+     */
+    public void put(String hash, String suffix, String content) throws IOException {
+        directory.mkdirs();
+        File tmp = new File(directory, hash + suffix + "-" + System.nanoTime() + ".tmp");
+        FileUtils.write(tmp, content, "UTF-8");
+        File target = new File(directory, hash + suffix);
+        if (!tmp.renameTo(target)) {
+            // Already stored by another build.
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the files produced by the processors in memory. The files of the store shadow the files of the disk: a
+ * file written in the store is read from the store, a file deleted from the store does not exist anymore even if
+ * it is still on the disk.
+ *
+ * If the write-behind is enabled, the changes are written to the disk by a background thread, the latest version
+ * of a file only. The file events caused by these writes can be recognized with {@link #isWrittenByStore(File)}.
+ */
+public class OutputStore implements Runnable {
+
+    /**
+     * A file of the store.
+     */
+    public static class Entry {
+        private final byte[] content;
+        private final long lastModified;
+
+        private Entry(byte[] content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the content, <code>null</code> if the file was deleted
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private final Map<File, Entry> entries = new HashMap<File, Entry>();
+
+    /**
+     * The files to write on the disk.
+     */
+    private final Set<File> dirty = new LinkedHashSet<File>();
+
+    /**
+     * The files written on the disk by the store, with their last modification date on the disk (0 if deleted).
+     */
+    private final Map<File, Long> written = new HashMap<File, Long>();
+
+    private final Log log;
+
+    private Thread writer;
+
+    /**
+     * Creates the store.
+     *
+     * @param writeBehind whether the files are written to the disk
+     * @param log         the log
+     */
+    public OutputStore(boolean writeBehind, Log log) {
+        this.log = log;
+        if (writeBehind) {
+            writer = new Thread(this, "coffee-mill-output-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    public synchronized void write(File file, byte[] content) {
+        File key = file.getAbsoluteFile();
+        // Dates must change on each write, as they are used to check whether a file changed.
+        Entry previous = entries.get(key);
+        long date = System.currentTimeMillis();
+        if (previous != null && previous.lastModified >= date) {
+            date = previous.lastModified + 1;
+        }
+        entries.put(key, new Entry(content, date));
+        markDirty(key);
+    }
+
+    public synchronized void delete(File file) {
+        File key = file.getAbsoluteFile();
+        entries.put(key, new Entry(null, System.currentTimeMillis()));
+        markDirty(key);
+    }
+
+    private void markDirty(File file) {
+        if (writer != null) {
+            dirty.add(file);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gets a file of the store.
+     *
+     * @param file the file
+     * @return the entry, <code>null</code> if the file is not managed by the store
+     */
+    public synchronized Entry get(File file) {
+        return entries.get(file.getAbsoluteFile());
+    }
+
+    /**
+     * Checks whether a file exists, in the store or on the disk.
+     */
+    public boolean isFile(File file) {
+        Entry entry = get(file);
+        return entry == null ? file.isFile() : entry.content != null;
+    }
+
+    /**
+     * Reads a file, from the store or from the disk.
+     *
+     * @param file the file
+     * @return the content
+     * @throws IOException if the file does not exist or cannot be read
+     */
+    public byte[] read(File file) throws IOException {
+        Entry entry = get(file);
+        if (entry == null) {
+            return FileUtils.readFileToByteArray(file);
+        }
+        if (entry.content == null) {
+            throw new IOException(file.getAbsolutePath() + " does not exist");
+        }
+        return entry.content;
+    }
+
+    /**
+     * Lists the files of a directory and its sub-directories, from the store and from the disk.
+     *
+     * @param directory  the directory
+     * @param extensions the extensions, all files if <code>null</code>
+     * @return the existing files
+     */
+    public Collection<File> listFiles(File directory, String[] extensions) {
+        Set<File> files = new LinkedHashSet<File>();
+        if (directory.isDirectory()) {
+            for (File file : FileUtils.listFiles(directory, extensions, true)) {
+                files.add(file.getAbsoluteFile());
+            }
+        }
+        String prefix = directory.getAbsolutePath() + File.separator;
+        synchronized (this) {
+            for (Map.Entry<File, Entry> entry : entries.entrySet()) {
+                File file = entry.getKey();
+                if (!file.getPath().startsWith(prefix) || !hasExtension(file, extensions)) {
+                    continue;
+                }
+                if (entry.getValue().content == null) {
+                    files.remove(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static boolean hasExtension(File file, String[] extensions) {
+        if (extensions == null) {
+            return true;
+        }
+        for (String extension : extensions) {
+            if (file.getName().endsWith("." + extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the current state of the file on the disk was written by the store.
+     */
+    public synchronized boolean isWrittenByStore(File file) {
+        Long date = written.get(file.getAbsoluteFile());
+        return date != null && date == file.lastModified();
+    }
+
+    /**
+     * Waits until all the changes are written to the disk.
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (writer != null && !dirty.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * Stops the write-behind. Pending changes are written.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+            writer = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void run() {
+        while (true) {
+            List<File> files;
+            synchronized (this) {
+                while (writer != null && dirty.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (dirty.isEmpty()) {
+                    return;
+                }
+                files = new ArrayList<File>(dirty);
+            }
+            for (File file : files) {
+                writeToDisk(file);
+            }
+        }
+    }
+
+    private void writeToDisk(File file) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+        }
+        try {
+            if (entry.content == null) {
+                FileUtils.deleteQuietly(file);
+            } else {
+                FileUtils.writeByteArrayToFile(file, entry.content);
+            }
+        } catch (IOException e) {
+            log.error("Cannot write " + file.getAbsolutePath(), e);
+        }
+        synchronized (this) {
+            written.put(file, file.lastModified());
+            // Written again in the meantime, the file stays dirty
+            if (entries.get(file) == entry) {
+                dirty.remove(file);
+            }
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs external processes (optipng, jpegtran...) with a bounded parallelism.
+ *
+ * Processes are executed by the threads of the executor returned by {@link #start()}, at most
+ * <tt>parallelism</tt> at a time. Each process is killed if it does not complete within the timeout. The output of
+ * each process is buffered and written to the Maven log once the process completes, so the outputs of concurrent
+ * processes are not interleaved. {@link #stop()} reports the wall time and the cumulated time spent in the
+ * processes.
+ */
+public class ProcessScheduler {
+
+    private final int parallelism;
+
+    private final long timeout;
+
+    private final Log log;
+
+    private ExecutorService executor;
+
+    private long begin;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final AtomicLong processTime = new AtomicLong();
+
+    /**
+     * @param parallelism the maximum number of concurrent processes
+     * @param timeout     the process timeout in milliseconds, 0 to disable it
+     * @param log         the log
+     */
+    public ProcessScheduler(int parallelism, long timeout, Log log) {
+        this.parallelism = Math.max(1, parallelism);
+        this.timeout = timeout;
+        this.log = log;
+    }
+
+    /**
+     * Starts a new batch of processes.
+     *
+     * @return the executor on which the tasks launching the processes must be submitted.
+     */
+    public synchronized ExecutorService start() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism, new ProcessThreadFactory());
+            begin = System.currentTimeMillis();
+            count.set(0);
+            processTime.set(0);
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the current batch and reports the time spent.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor = null;
+        if (count.get() > 0) {
+            log.info(count.get() + " processes executed in " + (System.currentTimeMillis() - begin) + " ms with "
+                    + parallelism + " threads (" + processTime.get() + " ms of cumulated process time)");
+        }
+    }
+
+    /**
+     * Executes the given command in the current thread. The command must exit with 0.
+     *
+     * @param cmdLine          the command
+     * @param workingDirectory the working directory
+     * @throws IOException if the process fails, or does not complete in time
+     */
+    public void execute(CommandLine cmdLine, File workingDirectory) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DefaultExecutor executor = new DefaultExecutor();
+        executor.setWorkingDirectory(workingDirectory);
+        executor.setExitValue(0);
+        executor.setStreamHandler(new PumpStreamHandler(output));
+        ExecuteWatchdog watchdog = null;
+        if (timeout > 0) {
+            watchdog = new ExecuteWatchdog(timeout);
+            executor.setWatchdog(watchdog);
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(cmdLine);
+        } catch (ExecuteException e) {
+            if (watchdog != null && watchdog.killedProcess()) {
+                throw new IOException("Process killed after " + timeout + " ms : " + cmdLine);
+            }
+            throw e;
+        } finally {
+            long duration = System.currentTimeMillis() - start;
+            processTime.addAndGet(duration);
+            count.incrementAndGet();
+            report(cmdLine, output, duration);
+        }
+    }
+
+    private void report(CommandLine cmdLine, ByteArrayOutputStream output, long duration) {
+        synchronized (log) {
+            log.info("Executed " + cmdLine + " in " + duration + " ms");
+            String content = output.toString().trim();
+            if (content.length() > 0) {
+                for (String line : content.split("\r?\n")) {
+                    log.info("    " + line);
+                }
+            }
+        }
+    }
+
+    private static class ProcessThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "coffee-mill-process-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
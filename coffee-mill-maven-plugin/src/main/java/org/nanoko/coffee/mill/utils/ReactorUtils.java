@@ -17,6 +17,7 @@ package org.nanoko.coffee.mill.utils;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.nanoko.coffee.mill.mojos.others.WatchMojo;
 
@@ -57,4 +58,36 @@ public class ReactorUtils {
         }
     }
 
+    /**
+     * Gets the headless browser shared by the Jasmine executions of the given project. The browser is created on the
+     * first call and is only quit by a shutdown hook: it lives until the JVM exits, which in an embedded or
+     * long-lived Maven JVM may be after the end of the build.
+     */
+    public static JasmineBrowser getJasmineBrowser(MavenSession session, MavenProject project, Log log) {
+        return getJasmineBrowser(session, project, 0, log);
+    }
+
+    /**
+     * Gets one of the headless browsers shared by the Jasmine executions of the given project, used to run the specs
+     * concurrently. Like the default one, the browser lives until the JVM exits.
+     *
+     * @param index the index of the browser, the browser 0 is the default one
+     */
+    public static synchronized JasmineBrowser getJasmineBrowser(MavenSession session, MavenProject project,
+                                                                int index, Log log) {
+        String key = "coffee-mill.jasmine.browser." + project.getId() + (index == 0 ? "" : "." + index);
+        JasmineBrowser browser = (JasmineBrowser) session.getExecutionProperties().get(key);
+        if (browser == null) {
+            final JasmineBrowser created = new JasmineBrowser(log);
+            Runtime.getRuntime().addShutdownHook(new Thread("coffee-mill-jasmine-browser-shutdown") {
+                public void run() {
+                    created.quit();
+                }
+            });
+            session.getExecutionProperties().put(key, created);
+            browser = created;
+        }
+        return browser;
+    }
+
 }
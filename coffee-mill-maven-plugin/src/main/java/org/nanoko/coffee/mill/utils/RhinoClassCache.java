@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.DefiningClassLoader;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+import org.nanoko.coffee.mill.mojos.AbstractCoffeeMillMojo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles scripts to Java bytecode using the Rhino class compiler (optimization level 9) and caches the generated
+ * classes on disk, in a directory keyed by the Rhino version and the script hash. Scripts already loaded are also
+ * kept in memory, so a script is compiled once, and loaded once per JVM.
+ *
+ * If a script cannot be compiled (for instance because a generated method exceeds the 64K limit), the cache
+ * remembers it and {@link #getScript(Context, String, String)} returns <code>null</code>, letting the caller
+ * interpret it.
+ */
+public class RhinoClassCache {
+
+    public static final String CACHE_DIRECTORY = "coffee-mill-cache/rhino-classes";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RhinoClassCache.class);
+
+    private static final String PACKAGE = "org.nanoko.coffee.mill.rhino.";
+
+    /**
+     * Marker written when the script cannot be compiled.
+     */
+    private static final String INTERPRETED_MARKER = "interpreted";
+
+    /**
+     * Already loaded scripts, by key (rhino version / script hash). A <code>null</code> value means the script
+     * cannot be compiled.
+     */
+    private static final Map<String, Script> LOADED = new HashMap<String, Script>();
+
+    private final File directory;
+
+    public RhinoClassCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param mojo the mojo
+     * @return the cache to use according to the mojo configuration, <code>null</code> if scripts must be
+     * interpreted.
+     */
+    public static RhinoClassCache forMojo(AbstractCoffeeMillMojo mojo) {
+        if (mojo == null || mojo.rhinoEngineMode != RhinoLauncher.EngineMode.OPTIMIZED) {
+            return null;
+        }
+        File base = mojo.buildDirectory;
+        if (base == null) {
+            base = new File("target");
+        }
+        return new RhinoClassCache(new File(base, CACHE_DIRECTORY));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the compiled version of the given script.
+     *
+     * @param context    the current context
+     * @param source     the script
+     * @param sourceName the script name
+     * @return the compiled script, <code>null</code> if the script cannot be compiled.
+     */
+    public Script getScript(Context context, String source, String sourceName) {
+        String version = context.getImplementationVersion().replaceAll("[^A-Za-z0-9._-]", "_");
+        String hash = HashUtils.sha1(source);
+        String key = version + "/" + hash;
+
+        synchronized (LOADED) {
+            if (LOADED.containsKey(key)) {
+                return LOADED.get(key);
+            }
+
+            Script script = null;
+            File dir = new File(directory, version + File.separator + hash);
+            String mainClassName = PACKAGE + "Script_" + hash;
+            try {
+                Map<String, byte[]> classes = read(dir);
+                if (classes == null) {
+                    classes = compile(context, source, sourceName, mainClassName);
+                    write(dir, classes);
+                }
+                if (!classes.isEmpty()) {
+                    script = load(classes, mainClassName);
+                    LOG.debug("Using compiled version of " + sourceName);
+                }
+            } catch (IOException e) {
+                LOG.warn("Cannot use the class cache for " + sourceName + " - " + e.getMessage());
+            }
+            LOADED.put(key, script);
+            return script;
+        }
+    }
+
+    /**
+     * Compiles the script.
+     *
+     * @return the generated classes by name, the main class first. The map is empty if the script cannot be
+     * compiled.
+     */
+    private Map<String, byte[]> compile(Context context, String source, String sourceName, String mainClassName) {
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        CompilerEnvirons environment = new CompilerEnvirons();
+        environment.initFromContext(context);
+        environment.setOptimizationLevel(9);
+        environment.setLanguageVersion(Context.VERSION_1_8);
+        long begin = System.currentTimeMillis();
+        try {
+            Object[] result = new ClassCompiler(environment).compileToClassFiles(source, sourceName, 1,
+                    mainClassName);
+            for (int i = 0; i < result.length; i += 2) {
+                classes.put((String) result[i], (byte[]) result[i + 1]);
+            }
+            LOG.info(sourceName + " compiled to " + classes.size() + " classes in "
+                    + (System.currentTimeMillis() - begin) + " ms");
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot compile " + sourceName + ", it will be interpreted - " + e.getMessage());
+        }
+        return classes;
+    }
+
+    private Script load(Map<String, byte[]> classes, String mainClassName) throws IOException {
+        DefiningClassLoader loader = new DefiningClassLoader(Context.class.getClassLoader());
+        List<Class<?>> defined = new ArrayList<Class<?>>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            defined.add(loader.defineClass(entry.getKey(), entry.getValue()));
+        }
+        Class<?> main = null;
+        for (Class<?> clazz : defined) {
+            loader.linkClass(clazz);
+            if (clazz.getName().equals(mainClassName)) {
+                main = clazz;
+            }
+        }
+        if (main == null) {
+            throw new IOException("Main class " + mainClassName + " not found");
+        }
+        try {
+            return (Script) main.newInstance();
+        } catch (Exception e) {
+            throw new IOException("Cannot instantiate " + mainClassName + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the classes from the given directory.
+     *
+     * @return the classes by name, empty if the script was not compilable, <code>null</code> if not cached.
+     */
+    private Map<String, byte[]> read(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        if (new File(dir, INTERPRETED_MARKER).exists()) {
+            return classes;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".class")) {
+                String name = file.getName().substring(0, file.getName().length() - ".class".length());
+                classes.put(name, FileUtils.readFileToByteArray(file));
+            }
+        }
+        if (classes.isEmpty()) {
+            return null;
+        }
+        return classes;
+    }
+
+    /**
+     * Writes the classes to a temporary directory, then renames it, so concurrent builds never read a partial
+     * directory.
+     */
+    private void write(File dir, Map<String, byte[]> classes) throws IOException {
+        File tmp = new File(dir.getParentFile(), dir.getName() + "-" + System.nanoTime() + ".tmp");
+        tmp.mkdirs();
+        if (classes.isEmpty()) {
+            FileUtils.touch(new File(tmp, INTERPRETED_MARKER));
+        }
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            FileUtils.writeByteArrayToFile(new File(tmp, entry.getKey() + ".class"), entry.getValue());
+        }
+        if (!tmp.renameTo(dir)) {
+            // Already written by someone else.
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+}
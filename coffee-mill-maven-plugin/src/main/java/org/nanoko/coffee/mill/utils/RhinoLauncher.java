@@ -19,9 +19,14 @@ package org.nanoko.coffee.mill.utils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
 import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
 import org.mozilla.javascript.tools.ToolErrorReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,14 +36,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Map;
 
 public class RhinoLauncher {
     private static final Logger LOG = LoggerFactory.getLogger(RhinoLauncher.class);
     private final ScriptableObject scope;
 
+    /**
+     * The cache of compiled scripts, <code>null</code> if scripts are interpreted.
+     */
+    private RhinoClassCache classCache;
+
+    /**
+     * How the bundled scripts are executed.
+     */
+    public enum EngineMode {
+        /**
+         * Scripts are interpreted (default).
+         */
+        INTERPRETED,
+        /**
+         * Bundled scripts are compiled to Java bytecode, and the generated classes are cached.
+         */
+        OPTIMIZED
+    }
+
 
     private RhinoLauncher() {
-        this(null);
+        this((ScriptableObject) null);
     }
 
 
@@ -46,6 +71,15 @@ public class RhinoLauncher {
         this.scope = createContext(scope);
     }
 
+    /**
+     * Creates a launcher evaluating scripts in a fresh scope inheriting from the given (already initialized) scope.
+     *
+     * @param shared the parent scope, generally shared and sealed.
+     */
+    private RhinoLauncher(final Scriptable shared) {
+        this.scope = createChildScope(shared);
+    }
+
 
     private Context getContext() {
         initContext();
@@ -82,6 +116,32 @@ public class RhinoLauncher {
         return scope;
     }
 
+    /**
+     * Creates a new top-level scope delegating to the given shared scope. Variables declared by the evaluated scripts
+     * are stored in the child scope, so the shared scope is never modified.
+     */
+    private ScriptableObject createChildScope(final Scriptable shared) {
+        Context context = getContext();
+        context.setOptimizationLevel(-1);
+        context.setErrorReporter(new ToolErrorReporter(false));
+        context.setLanguageVersion(Context.VERSION_1_8);
+        final ScriptableObject child = (ScriptableObject) context.newObject(shared);
+        child.setPrototype(shared);
+        child.setParentScope(null);
+        return child;
+    }
+
+    /**
+     * Sets the cache of compiled scripts used by {@link #evaluateChain(java.io.InputStream, String)}.
+     *
+     * @param cache the cache, <code>null</code> to interpret the scripts.
+     * @return {@link RhinoLauncher} used to chain evaluation of the scripts.
+     */
+    public RhinoLauncher useClassCache(final RhinoClassCache cache) {
+        this.classCache = cache;
+        return this;
+    }
+
     /**
      * Add a client side environment to the script context (client-side aware).
      *
@@ -144,6 +204,16 @@ public class RhinoLauncher {
             throws IOException {
         Validate.notNull(stream);
         try {
+            if (classCache != null) {
+                final String source = IOUtils.toString(stream);
+                final Script script = classCache.getScript(getContext(), source, sourceName);
+                if (script != null) {
+                    script.exec(getContext(), scope);
+                } else {
+                    getContext().evaluateString(scope, source, sourceName, 1, null);
+                }
+                return this;
+            }
             getContext().evaluateReader(scope, new InputStreamReader(stream), sourceName, 1, null);
             return this;
         } catch (final RuntimeException e) {
@@ -225,6 +295,85 @@ public class RhinoLauncher {
         }
     }
 
+    /**
+     * Binds a Java value to a property of the scope. Strings are bound as JavaScript strings, without being copied
+     * or parsed, other objects are wrapped (see {@link #toJS(Object)}).
+     *
+     * @param name  the name of the property
+     * @param value the value
+     * @return {@link RhinoLauncher} used to chain evaluation of the scripts.
+     */
+    public RhinoLauncher put(final String name, final Object value) {
+        getContext();
+        ScriptableObject.putProperty(scope, name, toJS(value));
+        return this;
+    }
+
+    /**
+     * Calls a function of the scope. The arguments are converted with {@link #toJS(Object)}, so large inputs such as
+     * source files are given as they are to the function, instead of being encoded in a script.
+     *
+     * @param function the name of the function, or the path of a method (<tt>CoffeeScript.compile</tt>)
+     * @param args     the arguments
+     * @return the result, <code>null</code> if the function returned <tt>undefined</tt>.
+     */
+    public Object call(final String function, final Object... args) {
+        Validate.notNull(function);
+        final Context context = getContext();
+        try {
+            Scriptable thisObj = scope;
+            Object target = scope;
+            for (String name : function.split("\\.")) {
+                if (!(target instanceof Scriptable)) {
+                    throw new IllegalArgumentException("Cannot find " + function + " in the scope");
+                }
+                thisObj = (Scriptable) target;
+                target = ScriptableObject.getProperty(thisObj, name);
+            }
+            if (!(target instanceof Function)) {
+                throw new IllegalArgumentException(function + " is not a function");
+            }
+            final Object[] jsArgs = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                jsArgs[i] = toJS(args[i]);
+            }
+            final Object result = ((Function) target).call(context, scope, thisObj, jsArgs);
+            if (result instanceof Undefined) {
+                return null;
+            }
+            if (result instanceof Wrapper) {
+                return ((Wrapper) result).unwrap();
+            }
+            return result;
+        } catch (final JavaScriptException e) {
+            LOG.error("JavaScriptException occured: " + e.getMessage());
+            throw e;
+        } finally {
+            // Same as evaluate
+            if (Context.getCurrentContext() != null) {
+                Context.exit();
+            }
+        }
+    }
+
+    /**
+     * Converts a Java value to a JavaScript value. Strings, numbers, booleans and JavaScript objects are kept as they
+     * are, maps are converted to JavaScript objects (recursively), other objects are wrapped.
+     *
+     * @param value the value
+     * @return the JavaScript value
+     */
+    private Object toJS(final Object value) {
+        if (value instanceof Map) {
+            final Scriptable object = getContext().newObject(scope);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                ScriptableObject.putProperty(object, String.valueOf(entry.getKey()), toJS(entry.getValue()));
+            }
+            return object;
+        }
+        return Context.javaToJS(value, scope);
+    }
+
     /**
      * @return default {@link RhinoLauncher} for script evaluation chaining.
      */
@@ -237,6 +386,22 @@ public class RhinoLauncher {
         return new RhinoLauncher(scope);
     }
 
+    /**
+     * @param cache the cache of compiled scripts, <code>null</code> to interpret the scripts.
+     * @return default {@link RhinoLauncher} for script evaluation chaining.
+     */
+    public static RhinoLauncher newChain(final RhinoClassCache cache) {
+        return new RhinoLauncher().useClassCache(cache);
+    }
+
+    /**
+     * @param shared the scope to inherit from.
+     * @return a {@link RhinoLauncher} evaluating scripts in a child scope of <tt>shared</tt>.
+     */
+    public static RhinoLauncher newChildChain(final Scriptable shared) {
+        return new RhinoLauncher(shared);
+    }
+
     /**
      * Transforms a java multi-line string into javascript multi-line string. This technique was found at
      * {@link http://stackoverflow.com/questions/805107/multiline-strings-in-javascript/}
@@ -275,6 +440,14 @@ public class RhinoLauncher {
         return new RhinoLauncher().addClientSideEnvironment();
     }
 
+    /**
+     * @param cache the cache of compiled scripts, <code>null</code> to interpret the scripts.
+     * @return {@link RhinoLauncher} for script evaluation chaining, with the client side environment.
+     */
+    public static RhinoLauncher newClientSideAwareChain(final RhinoClassCache cache) {
+        return new RhinoLauncher().useClassCache(cache).addClientSideEnvironment();
+    }
+
     public static class ScriptLoader {
         public static String load(String streamName) {
             System.out.println("Loading " + streamName);
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the structured values returned by the JavaScript tools (linters, compilers...) directly from the Rhino
+ * objects, instead of serializing them to JSON in the scope and parsing the JSON in Java.
+ */
+public class RhinoResults {
+
+    /**
+     * Gets the objects of an array property.
+     *
+     * @param object   the object
+     * @param property the name of the array property
+     * @return the objects of the array, empty if the property is not an array. Elements which are not objects are
+     * skipped.
+     */
+    public static List<Scriptable> getObjects(Scriptable object, String property) {
+        Object array = object == null ? null : ScriptableObject.getProperty(object, property);
+        if (!(array instanceof NativeArray)) {
+            return Collections.emptyList();
+        }
+        NativeArray elements = (NativeArray) array;
+        List<Scriptable> result = new ArrayList<Scriptable>((int) elements.getLength());
+        for (int i = 0; i < elements.getLength(); i++) {
+            Object element = elements.get(i, elements);
+            if (element instanceof Scriptable) {
+                result.add((Scriptable) element);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a property as a string.
+     *
+     * @param object   the object
+     * @param property the name of the property
+     * @return the value, <code>null</code> if not set
+     */
+    public static String getString(Scriptable object, String property) {
+        Object value = ScriptableObject.getProperty(object, property);
+        if (isMissing(value)) {
+            return null;
+        }
+        if (value instanceof Double && ((Double) value) == Math.rint((Double) value)) {
+            // Numbers are doubles in JavaScript, 12.0 is printed 12.
+            return Long.toString(((Double) value).longValue());
+        }
+        return value.toString();
+    }
+
+    /**
+     * Gets a property as an integer.
+     *
+     * @param object       the object
+     * @param property     the name of the property
+     * @param defaultValue the value used if the property is not set or is not a number
+     * @return the value
+     */
+    public static int getInt(Scriptable object, String property, int defaultValue) {
+        Object value = ScriptableObject.getProperty(object, property);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return defaultValue;
+    }
+
+    private static boolean isMissing(Object value) {
+        return value == null || value instanceof Undefined || value == Scriptable.NOT_FOUND;
+    }
+}
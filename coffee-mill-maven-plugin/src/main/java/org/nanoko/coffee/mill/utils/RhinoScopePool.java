@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.mozilla.javascript.ScriptableObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps pre-warmed Rhino scopes in which the compiler scripts (CoffeeScript, Less, Dust, CSSLint...) are already
+ * evaluated. The scopes are created once per key and thread, sealed and shared. Each compilation receives a cheap
+ * child scope (see {@link RhinoLauncher#newChildChain(org.mozilla.javascript.Scriptable)}), so the compiler library
+ * is parsed and initialized only once per thread.
+ *
+ * Shared scopes are owned by a thread: Rhino contexts are thread-bound and the compilers keep state in their
+ * libraries (the CoffeeScript lexer for instance), so each worker thread gets its own set of scopes.
+ */
+public class RhinoScopePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RhinoScopePool.class);
+
+    /**
+     * The shared scopes of the current thread, by key.
+     */
+    private static final ThreadLocal<Map<String, ScriptableObject>> SCOPES =
+            new ThreadLocal<Map<String, ScriptableObject>>() {
+                @Override
+                protected Map<String, ScriptableObject> initialValue() {
+                    return new HashMap<String, ScriptableObject>();
+                }
+            };
+
+    /**
+     * Creates the launcher used to initialize a shared scope. Called only once per key and engine mode.
+     */
+    public interface ScopeFactory {
+        /**
+         * @param cache the cache of compiled scripts to give to the launcher, <code>null</code> if the scripts
+         *              must be interpreted.
+         * @return the launcher in which the scripts are evaluated.
+         */
+        RhinoLauncher create(RhinoClassCache cache);
+    }
+
+    /**
+     * Gets the shared scope of the current thread associated with the given key, creating it with the given
+     * factory if needed. The returned scope is sealed.
+     *
+     * @param key     the key, generally the name of the compiler script.
+     * @param cache   the cache of compiled scripts, <code>null</code> if the scripts must be interpreted.
+     * @param factory the factory used if the scope is not yet created.
+     * @return the shared scope.
+     */
+    public static ScriptableObject getSharedScope(String key, RhinoClassCache cache, ScopeFactory factory) {
+        if (cache != null) {
+            key = key + "#" + RhinoLauncher.EngineMode.OPTIMIZED;
+        }
+        ScriptableObject scope = SCOPES.get().get(key);
+        if (scope == null) {
+            long begin = System.currentTimeMillis();
+            scope = factory.create(cache).getScope();
+            scope.sealObject();
+            SCOPES.get().put(key, scope);
+            LOG.debug("Rhino scope " + key + " initialized in " + (System.currentTimeMillis() - begin) + " ms");
+        }
+        return scope;
+    }
+
+    /**
+     * @param key     the key of the shared scope.
+     * @param cache   the cache of compiled scripts, <code>null</code> if the scripts must be interpreted.
+     * @param factory the factory used if the shared scope is not yet created.
+     * @return a {@link RhinoLauncher} working on a new child scope of the shared scope.
+     */
+    public static RhinoLauncher newChain(String key, RhinoClassCache cache, ScopeFactory factory) {
+        return RhinoLauncher.newChildChain(getSharedScope(key, cache, factory));
+    }
+
+    /**
+     * Releases the shared scopes of the current thread.
+     */
+    public static void clear() {
+        SCOPES.get().clear();
+    }
+}
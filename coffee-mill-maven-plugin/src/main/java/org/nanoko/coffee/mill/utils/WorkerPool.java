@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the worker threads used to compile files in parallel.
+ * The pools are shared by all the mojos of the build, so the Rhino scopes owned by each worker (see
+ * {@link RhinoScopePool}) stay warm from one mojo to the next. There is one pool per number of threads: pools are
+ * never shut down, as other callers (parallel module builds, other goals) may still use them. Workers are daemon
+ * threads and do not prevent the JVM from exiting.
+ */
+public class WorkerPool {
+
+    private static final Map<Integer, ExecutorService> EXECUTORS = new HashMap<Integer, ExecutorService>();
+
+    /**
+     * Gets the pool having the requested number of threads, creating it if it does not exist.
+     *
+     * @param threads the number of worker threads
+     * @return the executor service
+     */
+    public static synchronized ExecutorService get(int threads) {
+        ExecutorService executor = EXECUTORS.get(threads);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory(threads));
+            EXECUTORS.put(threads, executor);
+        }
+        return executor;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final int size;
+
+        private WorkerThreadFactory(int size) {
+            this.size = size;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "coffee-mill-worker-" + size + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Less compilation entry point of coffee-mill.
+ * Imports are resolved and read by the Java importer given to compileLess, files are identified by the ids returned
+ * by the importer. The contents of all the files are registered in the root parser, so errors located in an
+ * imported file are reported against this file.
+ */
+less.Parser.importer = function (path, paths, callback, env) {
+    var importer = env.importer,
+        state = env.state,
+        id = importer.resolve(path, env.filename),
+        data;
+    if (id === null) {
+        return callback({ type: 'File', message: "Cannot find " + path, filename: env.filename, index: 0 });
+    }
+    id = String(id);
+    data = String(importer.read(id)).replace(/\r\n/g, '\n');
+    state.contents[id] = data;
+    new(less.Parser)({ optimization: 2, filename: id, importer: importer, state: state })
+        .parse(data, function (e, root) {
+            if (e && !state.error) {
+                // The index of the error is replaced by the index of the @import statement.
+                state.error = { type: e.type, message: e.message, filename: e.filename, line: e.line,
+                    column: e.column };
+            }
+            callback(e, root, data);
+        });
+};
+
+var compileLess = function (css, importer) {
+    var result,
+        state = { contents: {}, error: null },
+        parser = new(less.Parser)({ optimization: 2, filename: '0', importer: importer, state: state });
+    state.contents['0'] = css.replace(/\r\n/g, '\n');
+    parser.imports.contents = state.contents;
+    try {
+        parser.parse(css, function (e, root) {
+            if (e) {
+                throw e;
+            }
+            result = root.toCSS();
+        });
+    } catch (e) {
+        throw state.error || e;
+    }
+    return result;
+};
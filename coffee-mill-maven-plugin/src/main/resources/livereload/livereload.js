@@ -0,0 +1,73 @@
+/*
+ * Live reload client of the coffee-mill watch mode.
+ * Include it with <script src="/livereload.js"></script>: updated stylesheets are swapped in place, the page is
+ * reloaded when any other file changes.
+ */
+(function () {
+    var version = -1;
+
+    function parse(text) {
+        return window.JSON ? JSON.parse(text) : eval('(' + text + ')');
+    }
+
+    function pathOf(url) {
+        var a = document.createElement('a');
+        a.href = url;
+        var path = a.pathname;
+        return path.charAt(0) === '/' ? path : '/' + path;
+    }
+
+    function swapStylesheets(files) {
+        var links = document.getElementsByTagName('link'), i, j, link, path;
+        for (i = 0; i < links.length; i++) {
+            link = links[i];
+            if (!/stylesheet/i.test(link.rel) || !link.href) {
+                continue;
+            }
+            path = pathOf(link.href);
+            for (j = 0; j < files.length; j++) {
+                if (path === files[j]) {
+                    link.href = path + '?livereload=' + new Date().getTime();
+                }
+            }
+        }
+    }
+
+    function apply(files) {
+        var stylesheets = [], i, file;
+        for (i = 0; i < files.length; i++) {
+            file = files[i];
+            if (/\.css$/.test(file)) {
+                stylesheets.push(file);
+            } else if (!/\.map$/.test(file)) {
+                window.location.reload();
+                return;
+            }
+        }
+        swapStylesheets(stylesheets);
+    }
+
+    function poll() {
+        var xhr = new XMLHttpRequest();
+        xhr.open('GET', '/livereload?since=' + version + '&t=' + new Date().getTime(), true);
+        xhr.onreadystatechange = function () {
+            if (xhr.readyState !== 4) {
+                return;
+            }
+            if (xhr.status !== 200) {
+                // Server stopped or restarting
+                setTimeout(poll, 2000);
+                return;
+            }
+            var data = parse(xhr.responseText);
+            if (version >= 0 && data.files.length > 0) {
+                apply(data.files);
+            }
+            version = data.version;
+            poll();
+        };
+        xhr.send(null);
+    }
+
+    poll();
+})();
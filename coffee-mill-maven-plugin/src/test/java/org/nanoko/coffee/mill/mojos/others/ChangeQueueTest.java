@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link ChangeQueue}.
+ */
+public class ChangeQueueTest {
+
+    @Test
+    public void testBurstIsDeliveredOnce() throws InterruptedException {
+        final BlockingQueue<ChangeSet> bursts = new LinkedBlockingQueue<ChangeSet>();
+        ChangeQueue queue = new ChangeQueue(new ChangeQueue.Listener() {
+            public void changesDetected(ChangeSet changes) {
+                bursts.add(changes);
+            }
+        }, 100, new SystemStreamLog());
+        queue.start();
+        try {
+            for (int i = 0; i < 500; i++) {
+                queue.add(new File("file-" + i + ".js"), ChangeSet.Kind.CREATED);
+                queue.add(new File("file-" + i + ".js"), ChangeSet.Kind.UPDATED);
+            }
+            ChangeSet burst = bursts.poll(10, TimeUnit.SECONDS);
+            assertThat(burst).isNotNull();
+            assertThat(burst.size()).isEqualTo(500);
+            assertThat(burst.getCreatedFiles()).hasSize(500);
+
+            // Changes cancelling each other are not delivered
+            queue.add(new File("tmp.js"), ChangeSet.Kind.CREATED);
+            queue.add(new File("tmp.js"), ChangeSet.Kind.DELETED);
+            assertThat(bursts.poll(500, TimeUnit.MILLISECONDS)).isNull();
+        } finally {
+            queue.stop();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link DirectoryHandler}.
+ */
+public class DirectoryHandlerTest {
+
+    private final File dir = new File("target/test/DirectoryHandlerTest");
+    private Server server;
+    private SelectChannelConnector connector;
+    private DirectoryHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        server = new Server();
+        connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        handler = new DirectoryHandler(dir);
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private HttpURLConnection open(String path, String etag, boolean gzip) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + connector.getLocalPort()
+                + path).openConnection();
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (gzip) {
+            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+        return connection;
+    }
+
+    @Test
+    public void testConditionalRequests() throws IOException {
+        File file = new File(dir, "js/app.js");
+        FileUtils.write(file, "var app = {};");
+
+        HttpURLConnection connection = open("/js/app.js", null, false);
+        assertThat(connection.getResponseCode()).isEqualTo(200);
+        assertThat(IOUtils.toString(connection.getInputStream())).isEqualTo("var app = {};");
+        String etag = connection.getHeaderField("ETag");
+        assertThat(etag).isNotNull();
+
+        connection = open("/js/app.js", etag, false);
+        assertThat(connection.getResponseCode()).isEqualTo(304);
+
+        FileUtils.write(file, "var app = {version: 2};");
+        handler.invalidate(Collections.singletonList(file));
+        connection = open("/js/app.js", etag, false);
+        assertThat(connection.getResponseCode()).isEqualTo(200);
+        assertThat(connection.getHeaderField("ETag")).isNotEqualTo(etag);
+        assertThat(IOUtils.toString(connection.getInputStream())).isEqualTo("var app = {version: 2};");
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        FileUtils.write(new File(dir, "app.css"), "body { color: red; }");
+        FileUtils.writeByteArrayToFile(new File(dir, "image.png"), new byte[]{1, 2, 3});
+
+        HttpURLConnection connection = open("/app.css", null, true);
+        assertThat(connection.getHeaderField("Content-Encoding")).isEqualTo("gzip");
+        assertThat(IOUtils.toString(new GZIPInputStream(connection.getInputStream())))
+                .isEqualTo("body { color: red; }");
+        String etag = connection.getHeaderField("ETag");
+        assertThat(open("/app.css", etag, true).getResponseCode()).isEqualTo(304);
+        // The uncompressed representation has another ETag
+        assertThat(open("/app.css", etag, false).getResponseCode()).isEqualTo(200);
+
+        connection = open("/image.png", null, true);
+        assertThat(connection.getHeaderField("Content-Encoding")).isNull();
+        assertThat(IOUtils.toByteArray(connection.getInputStream())).isEqualTo(new byte[]{1, 2, 3});
+    }
+}
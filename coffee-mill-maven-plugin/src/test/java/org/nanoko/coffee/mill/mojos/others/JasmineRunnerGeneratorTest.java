@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import com.github.searls.jasmine.TestMojo;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.utils.JasmineUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks that the watch mode Jasmine runner is only regenerated when scripts are added or removed.
+ */
+public class JasmineRunnerGeneratorTest {
+
+    private File basedir = new File("target/junk/jasmine-runner").getAbsoluteFile();
+
+    private WatchMojo mojo;
+
+    private JasmineRunnerGenerator generator;
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtils.deleteQuietly(basedir);
+        mojo = new WatchMojo();
+        mojo.project = new MavenProject();
+        mojo.project.setFile(new File(basedir, "pom.xml"));
+        Build build = new Build();
+        build.setDirectory(new File(basedir, "target").getAbsolutePath());
+        mojo.project.setBuild(build);
+        mojo.workDir = new File(basedir, "target/www");
+        mojo.workTestDir = new File(basedir, "target/www-test");
+        FileUtils.write(new File(mojo.workDir, "app.js"), "var app = {};");
+        FileUtils.write(new File(mojo.workTestDir, "appSpec.js"), "describe('app', function() {});");
+
+        TestMojo jasmine = new TestMojo();
+        JasmineUtils.prepareJasmineMojo(mojo, jasmine, null);
+        generator = new JasmineRunnerGenerator(mojo, jasmine);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(basedir);
+    }
+
+    @Test
+    public void testRunnerIsRegeneratedOnScriptAddition() throws IOException {
+        JasmineRunnerGenerator.Runner runner = generator.getRunner();
+        assertThat(runner.getHtml()).contains("/app.js").contains("/appSpec.js");
+        assertThat(generator.getRunner()).isSameAs(runner);
+
+        // Updated scripts do not change the runner
+        ChangeSet changes = new ChangeSet();
+        changes.add(new File(mojo.workDir, "app.js"), ChangeSet.Kind.UPDATED);
+        generator.filesChanged(changes);
+        assertThat(generator.getRunner()).isSameAs(runner);
+
+        File added = new File(mojo.workTestDir, "sub/otherSpec.js");
+        FileUtils.write(added, "describe('other', function() {});");
+        changes = new ChangeSet();
+        changes.add(added, ChangeSet.Kind.CREATED);
+        generator.filesChanged(changes);
+        JasmineRunnerGenerator.Runner updated = generator.getRunner();
+        assertThat(updated.getHtml()).contains("/sub/otherSpec.js");
+        assertThat(updated.getETag()).isNotEqualTo(runner.getETag());
+
+        changes = new ChangeSet();
+        changes.add(added, ChangeSet.Kind.DELETED);
+        generator.filesChanged(changes);
+        assertThat(generator.getRunner().getHtml()).excludes("/sub/otherSpec.js");
+        assertThat(generator.getRunner().getETag()).isEqualTo(runner.getETag());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link LiveReloadHandler}.
+ */
+public class LiveReloadHandlerTest {
+
+    private Server server;
+    private SelectChannelConnector connector;
+    private LiveReloadHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        handler = new LiveReloadHandler(2000);
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private String get(String path) throws IOException {
+        return IOUtils.toString(new URL("http://localhost:" + connector.getLocalPort() + path).openStream());
+    }
+
+    @Test
+    public void testPollReturnsTheChangedFiles() throws Exception {
+        assertThat(get("/livereload")).isEqualTo("{\"version\":0,\"files\":[]}");
+        assertThat(get("/livereload.js")).contains("/livereload?since=");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> poll = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return get("/livereload?since=0");
+                }
+            });
+            Thread.sleep(200);
+            assertThat(poll.isDone()).isFalse();
+            handler.publish(Arrays.asList("/app.css", "/app.css.map"));
+            assertThat(poll.get(5, TimeUnit.SECONDS))
+                    .isEqualTo("{\"version\":1,\"files\":[\"/app.css\",\"/app.css.map\"]}");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Late pollers get all the changes since their version
+        handler.publish(Arrays.asList("/app.js"));
+        assertThat(get("/livereload?since=0"))
+                .isEqualTo("{\"version\":2,\"files\":[\"/app.css\",\"/app.css.map\",\"/app.js\"]}");
+        // Unknown version, after a restart of the server
+        assertThat(get("/livereload?since=10")).isEqualTo("{\"version\":2,\"files\":[\"*\"]}");
+        // Nothing new before the timeout
+        assertThat(get("/livereload?since=2")).isEqualTo("{\"version\":2,\"files\":[]}");
+    }
+}
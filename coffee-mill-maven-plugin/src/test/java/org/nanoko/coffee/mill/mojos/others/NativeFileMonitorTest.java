@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link NativeFileMonitor}.
+ */
+public class NativeFileMonitorTest {
+
+    private final List<String> events = new CopyOnWriteArrayList<String>();
+
+    private final NativeFileMonitor.Listener listener = new NativeFileMonitor.Listener() {
+        public void fileCreated(File file) {
+            events.add("created:" + file.getName());
+        }
+
+        public void fileUpdated(File file) {
+            events.add("updated:" + file.getName());
+        }
+
+        public void fileDeleted(File file) {
+            events.add("deleted:" + file.getName());
+        }
+    };
+
+    @Test
+    public void testEventsInNewSubDirectories() throws Exception {
+        File dir = new File("target/test/testEventsInNewSubDirectories");
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+
+        NativeFileMonitor monitor = new NativeFileMonitor(listener, new SystemStreamLog());
+        monitor.addDirectory(dir);
+        monitor.start();
+        try {
+            // The file may be written before the registration of the new directory
+            File file = new File(dir, "sub/file.js");
+            FileUtils.write(file, "var a = 1;");
+            waitFor("created:file.js");
+            assertThat(events).excludes("created:sub");
+
+            file.delete();
+            waitFor("deleted:file.js");
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    private void waitFor(String event) throws InterruptedException {
+        // Some implementations poll (every 10 seconds on Mac OS X)
+        long end = System.currentTimeMillis() + 30000;
+        while (!events.contains(event) && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertThat(events).contains(event);
+    }
+}
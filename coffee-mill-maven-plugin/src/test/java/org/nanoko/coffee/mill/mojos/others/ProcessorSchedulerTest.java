@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.processors.DefaultProcessor;
+import org.nanoko.coffee.mill.processors.FileSet;
+import org.nanoko.coffee.mill.processors.Processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link ProcessorScheduler}.
+ */
+public class ProcessorSchedulerTest {
+
+    private final File dir = new File("target/test/ProcessorSchedulerTest").getAbsoluteFile();
+    private final File src = new File(dir, "src");
+    private final File work = new File(dir, "work");
+    private final List<String> calls = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Copies the 'in' files from src to work, renaming them to 'out'.
+     */
+    private class Compiler extends DefaultProcessor {
+        public boolean accept(File file) {
+            return new FileSet(src, "in").contains(file) && file.isFile();
+        }
+
+        public List<FileSet> getInputs() {
+            return Collections.singletonList(new FileSet(src, "in"));
+        }
+
+        public List<FileSet> getOutputs() {
+            return Collections.singletonList(new FileSet(work, "out"));
+        }
+
+        protected List<File> getOutputFiles(File input) {
+            return Collections.singletonList(new File(work, input.getName().replace(".in", ".out")));
+        }
+
+        public void fileCreated(File file) throws ProcessorException {
+            fileUpdated(file);
+        }
+
+        public void fileUpdated(File file) throws ProcessorException {
+            calls.add("compile:" + file.getName());
+            try {
+                FileUtils.copyFile(file, getOutputFiles(file).get(0));
+            } catch (IOException e) {
+                throw new ProcessorException("Cannot copy " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Records the 'out' files of the work directory.
+     */
+    private class Collector extends DefaultProcessor {
+        public boolean accept(File file) {
+            return new FileSet(work, "out").contains(file) && file.isFile();
+        }
+
+        public List<FileSet> getInputs() {
+            return Collections.singletonList(new FileSet(work, "out"));
+        }
+
+        protected void processChanges(ChangeSet changes) {
+            calls.add("collect:" + changes.size());
+        }
+    }
+
+    @Test
+    public void testChangesArePropagated() throws IOException {
+        FileUtils.deleteQuietly(dir);
+        File a = new File(src, "a.in");
+        File b = new File(src, "b.in");
+        FileUtils.write(a, "a");
+        FileUtils.write(b, "b");
+
+        Processor collector = new Collector();
+        Processor compiler = new Compiler();
+        // The collector is first in the list, but depends on the compiler
+        ProcessorScheduler scheduler = new ProcessorScheduler(Arrays.asList(collector, compiler),
+                new SystemStreamLog());
+        try {
+            assertThat(scheduler.getPredecessors(collector)).containsOnly(compiler);
+            assertThat(scheduler.getPredecessors(compiler)).isEmpty();
+
+            ChangeSet changes = new ChangeSet();
+            changes.add(a, ChangeSet.Kind.CREATED);
+            changes.add(b, ChangeSet.Kind.CREATED);
+            scheduler.process(changes);
+            assertThat(calls).containsOnly("compile:a.in", "compile:b.in", "collect:2");
+            assertThat(calls.get(2)).isEqualTo("collect:2");
+            assertThat(new File(work, "a.out")).exists();
+
+            // A file changed again is processed again, its output is propagated again
+            calls.clear();
+            changes = new ChangeSet();
+            changes.add(a, ChangeSet.Kind.UPDATED);
+            scheduler.process(changes);
+            assertThat(calls).containsExactly("compile:a.in", "collect:1");
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
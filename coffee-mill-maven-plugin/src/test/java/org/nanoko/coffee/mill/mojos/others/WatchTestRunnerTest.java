@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.others;
+
+import com.github.searls.jasmine.model.JasmineResult;
+import com.github.searls.jasmine.runner.ReporterType;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanoko.coffee.mill.processors.ChangeSet;
+import org.nanoko.coffee.mill.utils.JasmineBrowser;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the selection and the headless execution of the specs in watch mode.
+ */
+public class WatchTestRunnerTest {
+
+    private File basedir = new File("target/junk/watch-test-runner").getAbsoluteFile();
+
+    private WatchMojo mojo;
+
+    private Server server;
+
+    private JasmineHandler handler;
+
+    private WatchTestRunner runner;
+
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteQuietly(basedir);
+        mojo = new WatchMojo();
+        mojo.project = new MavenProject();
+        mojo.project.setFile(new File(basedir, "pom.xml"));
+        Build build = new Build();
+        build.setDirectory(new File(basedir, "target").getAbsolutePath());
+        build.setFinalName("app-1.0");
+        mojo.project.setBuild(build);
+        mojo.workDir = new File(basedir, "target/www");
+        mojo.workTestDir = new File(basedir, "target/www-test");
+        FileUtils.write(new File(mojo.workDir, "calc.js"), "var calc = { add: function(a, b) { return a + b; } };");
+        FileUtils.write(new File(mojo.workDir, "util.js"), "var util = {};");
+        FileUtils.write(new File(mojo.workTestDir, "calcSpec.js"),
+                "describe('calc', function() { it('adds', function() { expect(calc.add(1, 2)).toEqual(3); }); });");
+        FileUtils.write(new File(mojo.workTestDir, "other/failing-spec.js"),
+                "describe('failing', function() { it('fails', function() { expect(1).toEqual(2); }); });");
+
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        HandlerList list = new HandlerList();
+        list.addHandler(new DirectoryHandler(mojo.workDir));
+        list.addHandler(new DirectoryHandler(mojo.workTestDir));
+        handler = new JasmineHandler(mojo);
+        list.addHandler(handler);
+        server.setHandler(list);
+        server.start();
+        url = new URL("http://localhost:" + connector.getLocalPort() + JasmineHandler.HEADLESS_RUNNER);
+        runner = new WatchTestRunner(mojo, handler, url, 60);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runner.stop();
+        server.stop();
+        FileUtils.deleteQuietly(basedir);
+    }
+
+    @Test
+    public void testAffectedSpecs() {
+        ChangeSet changes = new ChangeSet();
+        changes.add(new File(mojo.workDir, "calc.js"), ChangeSet.Kind.UPDATED);
+        changes.add(new File(mojo.workDir, "app-1.0.js"), ChangeSet.Kind.UPDATED);
+        changes.add(new File(mojo.workDir, "style.css"), ChangeSet.Kind.UPDATED);
+        assertThat(runner.getAffectedSpecs(changes)).containsOnly("/calcSpec.js");
+
+        changes = new ChangeSet();
+        changes.add(new File(mojo.workTestDir, "other/failing-spec.js"), ChangeSet.Kind.UPDATED);
+        assertThat(runner.getAffectedSpecs(changes)).containsOnly("/other/failing-spec.js");
+
+        // No spec for util.js, everything is run
+        changes = new ChangeSet();
+        changes.add(new File(mojo.workDir, "util.js"), ChangeSet.Kind.UPDATED);
+        assertThat(runner.getAffectedSpecs(changes)).containsOnly("/calcSpec.js", "/other/failing-spec.js");
+    }
+
+    @Test
+    public void testTheBrowserIsReused() throws Exception {
+        JasmineBrowser browser = new JasmineBrowser(mojo.getLog());
+        try {
+            handler.setHeadlessRunner(handler.getGenerator().generate(Arrays.asList("/calcSpec.js"),
+                    ReporterType.JsApiReporter));
+            JasmineResult result = browser.run(url, null, 60, "progress");
+            assertThat(result.didPass()).isTrue();
+            assertThat(result.getDetails()).contains("1 specs, 0 failures");
+
+            handler.setHeadlessRunner(handler.getGenerator().generate(null, ReporterType.JsApiReporter));
+            File report = new File(basedir, "TEST-jasmine.xml");
+            result = browser.run(url, report, 60, "progress");
+            assertThat(result.didPass()).isFalse();
+            assertThat(result.getDetails()).contains("2 specs, 1 failures");
+            assertThat(FileUtils.readFileToString(report)).contains("failures=\"1\"");
+        } finally {
+            browser.quit();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.packaging;
+
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.proto.Mapping;
+import com.google.javascript.jscomp.CompilationLevel;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Build;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.junit.Test;
+import org.nanoko.coffee.mill.processors.JavaScriptAggregator;
+import org.nanoko.coffee.mill.utils.MinificationCache;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the behavior of JavaScriptMinifierMojo
+ */
+public class JavaScriptMinifierMojoTest {
+
+    /**
+     * Checks that the Google Closure source map is combined with the source map of the aggregate, so the minified
+     * file is mapped to the original sources.
+     */
+    @Test
+    public void testSourceMapIsChainedWithTheAggregateSourceMap() throws Exception {
+        File basedir = new File("target/test/testSourceMapIsChainedWithTheAggregateSourceMap");
+        FileUtils.deleteQuietly(basedir);
+        File a = new File(basedir, "www/a.js");
+        File b = new File(basedir, "www/b.js");
+        FileUtils.write(a, "var first = function () {\n  return 1;\n};\n");
+        FileUtils.write(b, "// A comment\nvar second = function (value) {\n  return value + 2;\n};");
+        File aggregate = new File(basedir, "test.js");
+
+        JavaScriptMinifierMojo mojo = new JavaScriptMinifierMojo();
+        mojo.workDir = new File(basedir, "www");
+        mojo.sourceMaps = true;
+        mojo.minifier = JavaScriptMinifierMojo.Minifier.GOOGLE_CLOSURE;
+        mojo.minifierGoogleCompilationLevel = CompilationLevel.SIMPLE_OPTIMIZATIONS;
+        mojo.setLog(new SystemStreamLog());
+
+        JavaScriptAggregator aggregator = new JavaScriptAggregator();
+        aggregator.configure(mojo, new OptionsHelper.OptionsBuilder().set("output", aggregate)
+                .set("extension", "js").set("names", Arrays.asList("a", "b")).set("sourceMap", true).build());
+        aggregator.processAll();
+        assertThat(new File(basedir, "test.js.map").isFile()).isTrue();
+
+        mojo.project = mock(MavenProject.class);
+        mojo.projectHelper = mock(MavenProjectHelper.class);
+        Build build = mock(Build.class);
+        Artifact artifact = mock(Artifact.class);
+        when(mojo.project.getBuild()).thenReturn(build);
+        when(mojo.project.getArtifact()).thenReturn(artifact);
+        when(artifact.getFile()).thenReturn(aggregate);
+        when(build.getDirectory()).thenReturn(basedir.getPath());
+        when(build.getFinalName()).thenReturn("test");
+        mojo.execute();
+
+        File minified = new File(basedir, "test-min.js");
+        File map = new File(basedir, "test-min.js.map");
+        assertThat(FileUtils.readFileToString(minified)).contains("//# sourceMappingURL=test-min.js.map");
+
+        SourceMapConsumerV3 consumer = new SourceMapConsumerV3();
+        consumer.parse(FileUtils.readFileToString(map));
+        assertThat(consumer.getOriginalSources()).containsOnly("www/a.js", "www/b.js");
+
+        String content = FileUtils.readFileToString(minified);
+        int index = content.indexOf("second");
+        int line = content.substring(0, index).split("\n", -1).length;
+        int column = index - content.lastIndexOf('\n', index - 1) - 1;
+        Mapping.OriginalMapping original = consumer.getMappingForLine(line, column + 1);
+        assertThat(original.getOriginalFile()).isEqualTo("www/b.js");
+        assertThat(original.getLineNumber()).isEqualTo(2);
+    }
+
+    /**
+     * Checks that files are minified separately, and that only the modified files are compiled again.
+     */
+    @Test
+    public void testPerFileMinificationReusesUnchangedFiles() throws Exception {
+        File basedir = new File("target/test/testPerFileMinificationReusesUnchangedFiles");
+        FileUtils.deleteQuietly(basedir);
+        File a = new File(basedir, "www/a.js");
+        File b = new File(basedir, "www/b.js");
+        FileUtils.write(a, "var first = function () {\n  var unused = 1;\n  return 1;\n};\n");
+        FileUtils.write(b, "// A comment\nvar second = function (value) {\n  return value + 2;\n};");
+        File aggregate = new File(basedir, "test.js");
+        FileUtils.write(aggregate, "// Not minified in this mode\n");
+
+        JavaScriptMinifierMojo mojo = newPerFileMojo(basedir, aggregate);
+        mojo.execute();
+
+        File minified = new File(basedir, "test-min.js");
+        String content = FileUtils.readFileToString(minified);
+        assertThat(content).contains("var first=function(){return 1};\n");
+        assertThat(content.indexOf("second")).isGreaterThan(content.indexOf("first"));
+        assertThat(content).doesNotContain("comment");
+        File cache = new File(basedir, MinificationCache.CACHE_DIRECTORY);
+        assertThat(FileUtils.listFiles(cache, new String[] {"js"}, true)).hasSize(2);
+
+        SourceMapConsumerV3 consumer = new SourceMapConsumerV3();
+        consumer.parse(FileUtils.readFileToString(new File(basedir, "test-min.js.map")));
+        assertThat(consumer.getOriginalSources()).containsOnly("www/a.js", "www/b.js");
+        int index = content.indexOf("second");
+        int line = content.substring(0, index).split("\n", -1).length;
+        int column = index - content.lastIndexOf('\n', index - 1) - 1;
+        Mapping.OriginalMapping original = consumer.getMappingForLine(line, column + 1);
+        assertThat(original.getOriginalFile()).isEqualTo("www/b.js");
+        assertThat(original.getLineNumber()).isEqualTo(2);
+
+        // Only b.js changed, a.js is taken from the cache
+        FileUtils.write(b, "var second = function (value) {\n  return value + 3;\n};");
+        newPerFileMojo(basedir, aggregate).execute();
+        assertThat(FileUtils.readFileToString(minified)).contains("var first=function(){return 1};\n")
+                .contains("+3");
+        assertThat(FileUtils.listFiles(cache, new String[] {"js"}, true)).hasSize(3);
+    }
+
+    /**
+     * Checks that files are minified concurrently with YUI, and concatenated in the aggregation order.
+     */
+    @Test
+    public void testPerFileMinificationWithYUI() throws Exception {
+        File basedir = new File("target/test/testPerFileMinificationWithYUI");
+        FileUtils.deleteQuietly(basedir);
+        StringBuilder expected = new StringBuilder();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            FileUtils.write(new File(basedir, "www/file" + i + ".js"),
+                    "function f" + i + "(value) {\n  var result = value + " + i + ";\n  return result;\n}\n");
+            names.add("file" + i);
+            expected.append("function f").append(i).append("(b){var a=b+").append(i).append(";return a};\n");
+        }
+        File cache = new File(basedir, "shared-cache");
+        JavaScriptMinifierMojo mojo = newPerFileMojo(basedir, new File(basedir, "test.js"));
+        FileUtils.write(new File(basedir, "test.js"), "");
+        mojo.minifier = JavaScriptMinifierMojo.Minifier.YUI_COMPRESSOR;
+        mojo.minifierYUIMunge = true;
+        mojo.sourceMaps = false;
+        mojo.incremental = false;
+        mojo.compileThreads = 4;
+        mojo.minifierCacheDirectory = cache;
+        mojo.javascriptAggregation = names;
+        mojo.execute();
+
+        String content = FileUtils.readFileToString(new File(basedir, "test-min.js"));
+        assertThat(content).isEqualTo(expected.toString());
+        assertThat(new File(basedir, "test-min.js.map").exists()).isFalse();
+        assertThat(FileUtils.listFiles(cache, new String[] {"js"}, true)).hasSize(8);
+    }
+
+    private JavaScriptMinifierMojo newPerFileMojo(File basedir, File aggregate) {
+        JavaScriptMinifierMojo mojo = new JavaScriptMinifierMojo();
+        mojo.workDir = new File(basedir, "www");
+        mojo.buildDirectory = basedir;
+        mojo.incremental = true;
+        mojo.sourceMaps = true;
+        mojo.minifier = JavaScriptMinifierMojo.Minifier.GOOGLE_CLOSURE;
+        mojo.minifierGoogleCompilationLevel = CompilationLevel.SIMPLE_OPTIMIZATIONS;
+        mojo.minifierPerFile = true;
+        mojo.javascriptAggregation = Arrays.asList("a", "b");
+        mojo.setLog(new SystemStreamLog());
+
+        mojo.project = mock(MavenProject.class);
+        mojo.projectHelper = mock(MavenProjectHelper.class);
+        Build build = mock(Build.class);
+        Artifact artifact = mock(Artifact.class);
+        when(mojo.project.getBuild()).thenReturn(build);
+        when(mojo.project.getArtifact()).thenReturn(artifact);
+        when(artifact.getFile()).thenReturn(aggregate);
+        when(build.getDirectory()).thenReturn(basedir.getPath());
+        when(build.getFinalName()).thenReturn("test");
+        return mojo;
+    }
+}
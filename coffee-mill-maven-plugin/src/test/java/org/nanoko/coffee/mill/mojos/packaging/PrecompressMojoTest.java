@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.mojos.packaging;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the behavior of PrecompressMojo
+ */
+public class PrecompressMojoTest {
+
+    @Test
+    public void testTextFilesArePrecompressed() throws Exception {
+        File basedir = new File("target/test/testTextFilesArePrecompressed");
+        FileUtils.deleteQuietly(basedir);
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            code.append("var value").append(i).append(" = compute(").append(i).append(");\n");
+        }
+        File script = new File(basedir, "www/js/app.js");
+        File minified = new File(basedir, "test-min.js");
+        File tiny = new File(basedir, "www/tiny.css");
+        File image = new File(basedir, "www/image.png");
+        File nested = new File(basedir, "coffee-mill-cache/minified/cached.js");
+        FileUtils.write(script, code.toString());
+        FileUtils.write(minified, code.toString());
+        FileUtils.write(tiny, "a{}");
+        FileUtils.write(image, code.toString());
+        FileUtils.write(nested, code.toString());
+
+        PrecompressMojo mojo = newMojo(basedir);
+        mojo.attachPrecompressed = true;
+        mojo.compileThreads = 2;
+        mojo.execute();
+
+        File gz = new File(basedir, "www/js/app.js.gz");
+        assertThat(gz.isFile()).isTrue();
+        assertThat(gz.length()).isLessThan(script.length());
+        assertThat(gunzip(gz)).isEqualTo(code.toString());
+        assertThat(new File(basedir, "test-min.js.gz").isFile()).isTrue();
+        // Too small, not a text file, not a packaged file
+        assertThat(new File(basedir, "www/tiny.css.gz").exists()).isFalse();
+        assertThat(new File(basedir, "www/image.png.gz").exists()).isFalse();
+        assertThat(new File(basedir, "coffee-mill-cache/minified/cached.js.gz").exists()).isFalse();
+        verify(mojo.projectHelper).attachArtifact(mojo.project, "js.gz", "min",
+                new File(basedir, "test-min.js.gz"));
+
+        // Up to date files are not compressed again
+        assertThat(gz.setLastModified(script.lastModified() + 10000)).isTrue();
+        long date = gz.lastModified();
+        newMojo(basedir).execute();
+        assertThat(gz.lastModified()).isEqualTo(date);
+    }
+
+    @Test
+    public void testNothingIsAttachedByDefault() throws Exception {
+        File basedir = new File("target/test/testNothingIsAttachedByDefault");
+        FileUtils.deleteQuietly(basedir);
+        FileUtils.write(new File(basedir, "test.css"), StringUtils.repeat("h1 { color: red; }\n", 100));
+
+        PrecompressMojo mojo = newMojo(basedir);
+        mojo.execute();
+
+        assertThat(new File(basedir, "test.css.gz").isFile()).isTrue();
+        verify(mojo.projectHelper, never()).attachArtifact(any(MavenProject.class), anyString(), anyString(),
+                any(File.class));
+    }
+
+    @Test
+    public void testPrecompressionIsDisabledByDefault() throws Exception {
+        File basedir = new File("target/test/testPrecompressionIsDisabledByDefault");
+        FileUtils.deleteQuietly(basedir);
+        FileUtils.write(new File(basedir, "www/app.css"), StringUtils.repeat("h1 { color: red; }\n", 100));
+
+        PrecompressMojo mojo = newMojo(basedir);
+        mojo.precompress = false;
+        mojo.execute();
+
+        assertThat(new File(basedir, "www/app.css.gz").exists()).isFalse();
+    }
+
+    private PrecompressMojo newMojo(File basedir) {
+        PrecompressMojo mojo = new PrecompressMojo();
+        mojo.workDir = new File(basedir, "www");
+        mojo.precompress = true;
+        mojo.precompressMinSize = 256;
+        mojo.compileThreads = 1;
+        mojo.setLog(new SystemStreamLog());
+        mojo.project = mock(MavenProject.class);
+        mojo.projectHelper = mock(MavenProjectHelper.class);
+        Build build = mock(Build.class);
+        when(mojo.project.getBuild()).thenReturn(build);
+        when(build.getDirectory()).thenReturn(basedir.getPath());
+        when(build.getFinalName()).thenReturn("test");
+        return mojo;
+    }
+
+    private static String gunzip(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+}
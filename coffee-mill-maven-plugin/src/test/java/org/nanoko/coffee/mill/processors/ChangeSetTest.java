@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.processors;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks how the {@link ChangeSet} collapses the changes.
+ */
+public class ChangeSetTest {
+
+    private final File a = new File("a.js").getAbsoluteFile();
+    private final File b = new File("b.js").getAbsoluteFile();
+    private final File c = new File("c.js").getAbsoluteFile();
+    private final File d = new File("d.js").getAbsoluteFile();
+
+    @Test
+    public void testCollapse() {
+        ChangeSet changes = new ChangeSet();
+        // Created, updated, updated
+        changes.add(a, ChangeSet.Kind.CREATED);
+        changes.add(a, ChangeSet.Kind.UPDATED);
+        changes.add(a, ChangeSet.Kind.UPDATED);
+        // Created, updated, deleted
+        changes.add(b, ChangeSet.Kind.CREATED);
+        changes.add(b, ChangeSet.Kind.UPDATED);
+        changes.add(b, ChangeSet.Kind.DELETED);
+        // Updated, deleted
+        changes.add(c, ChangeSet.Kind.UPDATED);
+        changes.add(c, ChangeSet.Kind.DELETED);
+        // Deleted, created (git checkout, atomic save...)
+        changes.add(d, ChangeSet.Kind.DELETED);
+        changes.add(d, ChangeSet.Kind.CREATED);
+
+        assertThat(changes.getFiles()).containsExactly(a, c, d);
+        assertThat(changes.getCreatedFiles()).containsExactly(a);
+        assertThat(changes.getDeletedFiles()).containsExactly(c);
+        assertThat(changes.getUpdatedFiles()).containsExactly(d);
+    }
+
+    @Test
+    public void testDefaultProcessorDispatchesEachChange() throws Processor.ProcessorException {
+        final StringBuilder calls = new StringBuilder();
+        DefaultProcessor processor = new DefaultProcessor() {
+            public boolean accept(File file) {
+                return !file.equals(d);
+            }
+
+            public void fileCreated(File file) {
+                calls.append("created:").append(file.getName()).append(' ');
+            }
+
+            public void fileUpdated(File file) {
+                calls.append("updated:").append(file.getName()).append(' ');
+            }
+
+            public void fileDeleted(File file) {
+                calls.append("deleted:").append(file.getName()).append(' ');
+            }
+        };
+        ChangeSet changes = new ChangeSet();
+        changes.add(a, ChangeSet.Kind.UPDATED);
+        changes.add(b, ChangeSet.Kind.CREATED);
+        changes.add(c, ChangeSet.Kind.DELETED);
+        changes.add(d, ChangeSet.Kind.CREATED);
+
+        processor.filesChanged(changes.filter(processor));
+        assertThat(calls.toString()).isEqualTo("deleted:c.js created:b.js updated:a.js ");
+    }
+}
@@ -15,6 +15,7 @@
 
 package org.nanoko.coffee.mill.processors;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.junit.Test;
@@ -22,8 +23,10 @@ import org.nanoko.coffee.mill.mojos.compile.CoffeeScriptCompilerMojo;
 import org.nanoko.coffee.mill.mojos.compile.CoffeeScriptTestCompilerMojo;
 
 import java.io.File;
+import java.io.IOException;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class CoffeeScriptCompilationProcessorTest {
 
@@ -88,6 +91,86 @@ public class CoffeeScriptCompilationProcessorTest {
         assertThat(new File(mojo1.workTestDir, "interfaces/FeedReader.js").isFile()).isTrue();
     }
 
+    @Test
+    public void testParallelCoffeeScriptCompilation() throws MojoExecutionException, MojoFailureException {
+        CoffeeScriptCompilerMojo mojo = new CoffeeScriptCompilerMojo();
+        mojo.coffeeScriptDir = new File("src/test/resources/coffee");
+        mojo.coffeeScriptTestDir = new File("src/test/resources/coffee_donotexist");
+        mojo.workDir = new File("target/test/testParallelCoffeeScriptCompilation-www");
+        mojo.workTestDir = new File("target/test/testParallelCoffeeScriptCompilation-www-test");
+        mojo.compileThreads = 4;
+        mojo.execute();
+
+        assertThat(new File(mojo.workDir, "SyndicationService.js").isFile()).isTrue();
+        assertThat(new File(mojo.workDir, "interfaces/FeedEntry.js").isFile()).isTrue();
+        assertThat(new File(mojo.workDir, "interfaces/FeedReader.js").isFile()).isTrue();
+    }
+
+    @Test
+    public void testParallelCompilationCollectsAllErrors() throws IOException, MojoFailureException {
+        File source = new File("target/test/testParallelCompilationCollectsAllErrors-coffee");
+        FileUtils.deleteQuietly(source);
+        FileUtils.copyDirectory(new File("src/test/resources/coffee"), source);
+        FileUtils.write(new File(source, "broken1.coffee"), "class A\n  m: ->\n    ) oops");
+        FileUtils.write(new File(source, "broken2.coffee"), "x = [1, 2\n");
+
+        CoffeeScriptCompilerMojo mojo = new CoffeeScriptCompilerMojo();
+        mojo.coffeeScriptDir = source;
+        mojo.coffeeScriptTestDir = new File("src/test/resources/coffee_donotexist");
+        mojo.workDir = new File("target/test/testParallelCompilationCollectsAllErrors-www");
+        mojo.workTestDir = new File("target/test/testParallelCompilationCollectsAllErrors-www-test");
+        mojo.compileThreads = 2;
+        try {
+            mojo.execute();
+            fail("Compilation errors expected");
+        } catch (MojoExecutionException e) {
+            assertThat(e.getCause().getMessage()).contains("2 files");
+        }
+        // Valid files are compiled anyway.
+        assertThat(new File(mojo.workDir, "SyndicationService.js").isFile()).isTrue();
+    }
+
+    @Test
+    public void testIncrementalCoffeeScriptCompilation() throws IOException, MojoExecutionException,
+            MojoFailureException {
+        File source = new File("target/test/testIncrementalCoffeeScriptCompilation-coffee");
+        FileUtils.deleteQuietly(source);
+        FileUtils.copyDirectory(new File("src/test/resources/coffee"), source);
+
+        CoffeeScriptCompilerMojo mojo = new CoffeeScriptCompilerMojo();
+        mojo.coffeeScriptDir = source;
+        mojo.coffeeScriptTestDir = new File("src/test/resources/coffee_donotexist");
+        mojo.workDir = new File("target/test/testIncrementalCoffeeScriptCompilation-www");
+        mojo.workTestDir = new File("target/test/testIncrementalCoffeeScriptCompilation-www-test");
+        mojo.buildDirectory = new File("target/test/testIncrementalCoffeeScriptCompilation");
+        FileUtils.deleteQuietly(mojo.buildDirectory);
+        mojo.incremental = true;
+        mojo.execute();
+
+        File service = new File(mojo.workDir, "SyndicationService.js");
+        File entry = new File(mojo.workDir, "interfaces/FeedEntry.js");
+        assertThat(service.isFile()).isTrue();
+        assertThat(new File(mojo.buildDirectory, "coffee-mill-cache/manifest.bin").isFile()).isTrue();
+
+        // Unchanged files are skipped
+        FileUtils.write(service, "// not recompiled");
+        FileUtils.write(entry, "// not recompiled");
+        mojo.execute();
+        assertThat(FileUtils.readFileToString(service)).isEqualTo("// not recompiled");
+
+        // The number of threads does not change the output
+        mojo.compileThreads = 4;
+        mojo.execute();
+        assertThat(FileUtils.readFileToString(service)).isEqualTo("// not recompiled");
+
+        // Modified files are recompiled
+        File input = new File(source, "interfaces/FeedEntry.coffee");
+        FileUtils.write(input, FileUtils.readFileToString(input) + "\n# changed\n");
+        mojo.execute();
+        assertThat(FileUtils.readFileToString(service)).isEqualTo("// not recompiled");
+        assertThat(FileUtils.readFileToString(entry)).isNotEqualTo("// not recompiled");
+    }
+
     @Test
     public void testWhenCoffeeScriptDirectoryDoesNotExist() throws MojoExecutionException,
             MojoFailureException {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.processors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.nanoko.coffee.mill.mojos.packaging.JavaScriptAggregatorMojo;
+import org.nanoko.coffee.mill.utils.OptionsHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class JavaScriptAggregatorTest {
+
+    @Test
+    public void testAggregation() throws IOException, Processor.ProcessorException {
+        File dir = new File("target/test/testAggregation");
+        FileUtils.deleteQuietly(dir);
+        File a = new File(dir, "www/a.js");
+        File b = new File(dir, "www/b.js");
+        FileUtils.write(a, "var a = 1");
+        FileUtils.write(b, "var b = 2");
+        File output = new File(dir, "out/aggregate.js");
+        FileUtils.write(output, "previous content which is longer than the new aggregate");
+
+        JavaScriptAggregatorMojo mojo = new JavaScriptAggregatorMojo();
+        mojo.workDir = new File(dir, "www");
+        JavaScriptAggregator aggregator = new JavaScriptAggregator();
+        aggregator.configure(mojo, new OptionsHelper.OptionsBuilder().set("output", output).set("extension", "js")
+                .set("names", Arrays.asList("a", "b")).build());
+        aggregator.processAll();
+
+        assertThat(FileUtils.readFileToString(output)).isEqualTo("var a = 1;\nvar b = 2;\n");
+        assertThat(new File(dir, "out").list()).containsOnly("aggregate.js");
+    }
+
+    @Test
+    public void testIncrementalAggregation() throws IOException, Processor.ProcessorException {
+        File dir = new File("target/test/testIncrementalAggregation");
+        FileUtils.deleteQuietly(dir);
+        File a = new File(dir, "www/a.js");
+        File b = new File(dir, "www/b.js");
+        File c = new File(dir, "www/c.js");
+        FileUtils.write(a, "var a = 1");
+        FileUtils.write(b, "var b = 2");
+        FileUtils.write(c, "var c = 3");
+        File output = new File(dir, "out/aggregate.js");
+
+        JavaScriptAggregatorMojo mojo = new JavaScriptAggregatorMojo();
+        mojo.workDir = new File(dir, "www");
+        JavaScriptAggregator aggregator = new JavaScriptAggregator();
+        aggregator.configure(mojo, new OptionsHelper.OptionsBuilder().set("output", output).set("extension", "js")
+                .set("names", Arrays.asList("a", "b", "c")).build());
+        aggregator.processAll();
+
+        // Only the segment of the updated file is read: the change of c.js without event is not seen.
+        FileUtils.write(c, "var c = 4");
+        FileUtils.write(b, "var b = 'a longer value'");
+        aggregator.fileUpdated(b);
+        assertThat(FileUtils.readFileToString(output))
+                .isEqualTo("var a = 1;\nvar b = 'a longer value';\nvar c = 3;\n");
+
+        // Offsets of the following segments are updated
+        FileUtils.write(c, "c");
+        aggregator.fileUpdated(c);
+        FileUtils.write(a, "");
+        aggregator.fileUpdated(a);
+        assertThat(FileUtils.readFileToString(output)).isEqualTo(";\nvar b = 'a longer value';\nc;\n");
+        assertThat(new File(dir, "out").list()).containsOnly("aggregate.js");
+    }
+}
@@ -20,6 +20,9 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.junit.Test;
 import org.nanoko.coffee.mill.mojos.compile.LessCompilerMojo;
+import org.nanoko.coffee.mill.utils.LessImportGraph;
+import org.nanoko.coffee.mill.utils.RhinoClassCache;
+import org.nanoko.coffee.mill.utils.RhinoLauncher;
 
 import java.io.File;
 import java.io.IOException;
@@ -41,6 +44,24 @@ public class LessCompilationProcessorTest {
         assertThat(new File(mojo.workDir, "site/site.css").isFile()).isTrue();
     }
 
+    @Test
+    public void testLessCompilationInOptimizedMode() throws MojoExecutionException, MojoFailureException,
+            IOException {
+        LessCompilerMojo mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = new File("src/test/resources/stylesheets");
+        mojo.workDir = new File("target/test/testLessCompilationInOptimizedMode-www");
+        mojo.buildDirectory = new File("target/test/testLessCompilationInOptimizedMode");
+        mojo.rhinoEngineMode = RhinoLauncher.EngineMode.OPTIMIZED;
+        mojo.execute();
+
+        assertThat(new File(mojo.workDir, "style.css").isFile()).isTrue();
+        assertThat(new File(mojo.workDir, "site/site.css").isFile()).isTrue();
+
+        // The generated classes are cached.
+        File cache = new File(mojo.buildDirectory, RhinoClassCache.CACHE_DIRECTORY);
+        assertThat(FileUtils.listFiles(cache, new String[] {"class"}, true)).isNotEmpty();
+    }
+
     /**
      * Checks that the less compiler does not generate '#NaNbbaaNaN00NaN00NaN00NaN00NaN'
      */
@@ -72,4 +93,122 @@ public class LessCompilationProcessorTest {
             // OK.
         }
     }
+
+    @Test
+    public void testImportsRecompileImporters() throws Exception {
+        File root = new File("target/test/testImportsRecompileImporters");
+        FileUtils.deleteQuietly(root);
+        File stylesheets = new File(root, "stylesheets");
+        FileUtils.write(new File(stylesheets, "theme/variables.less"), "@main: #ff0000;\n");
+        FileUtils.write(new File(stylesheets, "theme/mixins.less"),
+                "@import \"variables\";\n.colored { color: @main; }\n");
+        FileUtils.write(new File(stylesheets, "app.less"), "@import \"theme/mixins.less\";\n"
+                + "@import \"theme/variables.less\";\nh1 { .colored; }\n");
+        FileUtils.write(new File(stylesheets, "print.less"), "h1 { color: black; }\n");
+
+        LessCompilerMojo mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = stylesheets;
+        mojo.workDir = new File(root, "www");
+        mojo.buildDirectory = root;
+        mojo.incremental = true;
+        mojo.execute();
+
+        File app = new File(mojo.workDir, "app.css");
+        assertThat(FileUtils.readFileToString(app)).contains("#ff0000");
+        assertThat(new File(mojo.workDir, "print.css").isFile()).isTrue();
+        // Partials are not compiled on their own
+        assertThat(new File(mojo.workDir, "theme/variables.css").exists()).isFalse();
+        assertThat(new File(mojo.workDir, "theme/mixins.css").exists()).isFalse();
+        assertThat(new File(root, LessImportGraph.GRAPH_FILE).isFile()).isTrue();
+
+        // A change of a partial recompiles the importers only
+        File variables = new File(stylesheets, "theme/variables.less");
+        FileUtils.write(variables, "@main: #00ff00;\n");
+        LessCompilationProcessor processor = mojo.getProcessor();
+        assertThat(processor.getAffectedStylesheets(variables)).containsOnly(
+                new File(stylesheets, "app.less").getAbsoluteFile());
+        File print = new File(mojo.workDir, "print.css");
+        long printDate = print.lastModified();
+        ChangeSet changes = new ChangeSet();
+        changes.add(variables, ChangeSet.Kind.UPDATED);
+        ChangeSet outputs = processor.filesChanged(changes);
+
+        assertThat(FileUtils.readFileToString(app)).contains("#00ff00");
+        assertThat(outputs.getFiles()).containsOnly(app.getAbsoluteFile());
+        assertThat(print.lastModified()).isEqualTo(printDate);
+    }
+
+    @Test
+    public void testIncrementalBuildChecksImports() throws Exception {
+        File root = new File("target/test/testIncrementalBuildChecksImports");
+        FileUtils.deleteQuietly(root);
+        File stylesheets = new File(root, "stylesheets");
+        File variables = new File(stylesheets, "variables.less");
+        FileUtils.write(variables, "@main: #ff0000;\n");
+        FileUtils.write(new File(stylesheets, "app.less"), "@import 'variables';\nh1 { color: @main; }\n");
+
+        LessCompilerMojo mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = stylesheets;
+        mojo.workDir = new File(root, "www");
+        mojo.buildDirectory = root;
+        mojo.incremental = true;
+        mojo.execute();
+        File app = new File(mojo.workDir, "app.css");
+        assertThat(FileUtils.readFileToString(app)).contains("#ff0000");
+
+        // New build, only the partial changed
+        FileUtils.write(variables, "@main: #0000ff;\n");
+        mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = stylesheets;
+        mojo.workDir = new File(root, "www");
+        mojo.buildDirectory = root;
+        mojo.incremental = true;
+        mojo.execute();
+        assertThat(FileUtils.readFileToString(app)).contains("#0000ff");
+    }
+
+    @Test
+    public void testCommentedOutImportsAreIgnored() throws Exception {
+        File root = new File("target/test/testCommentedOutImportsAreIgnored");
+        FileUtils.deleteQuietly(root);
+        File stylesheets = new File(root, "stylesheets");
+        FileUtils.write(new File(stylesheets, "theme.less"), ".theme { color: red; }\n");
+        FileUtils.write(new File(stylesheets, "x.less"), ".x { color: blue; }\n");
+        FileUtils.write(new File(stylesheets, "app.less"), "// @import \"theme\";\n"
+                + "/* @import \"x.less\"; */\nh1 { background: url(http://example.com/a.png); }\n");
+
+        LessCompilerMojo mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = stylesheets;
+        mojo.workDir = new File(root, "www");
+        mojo.buildDirectory = root;
+        mojo.incremental = true;
+        mojo.execute();
+
+        String app = FileUtils.readFileToString(new File(mojo.workDir, "app.css"));
+        assertThat(app).contains("http://example.com/a.png").doesNotContain(".theme").doesNotContain(".x");
+        // Not partials
+        assertThat(new File(mojo.workDir, "theme.css").isFile()).isTrue();
+        assertThat(new File(mojo.workDir, "x.css").isFile()).isTrue();
+    }
+
+    @Test
+    public void testErrorsAreReportedAgainstTheImportedFile() throws Exception {
+        File root = new File("target/test/testErrorsAreReportedAgainstTheImportedFile");
+        FileUtils.deleteQuietly(root);
+        File stylesheets = new File(root, "stylesheets");
+        File broken = new File(stylesheets, "broken.less");
+        FileUtils.write(broken, ".a { color: red; }\n.b { color: @missing; }\n");
+        FileUtils.write(new File(stylesheets, "app.less"), "h1 { color: black; }\n@import \"broken\";\n");
+
+        LessCompilerMojo mojo = new LessCompilerMojo();
+        mojo.stylesheetsDir = stylesheets;
+        mojo.workDir = new File(root, "www");
+        mojo.buildDirectory = root;
+        try {
+            mojo.execute();
+            fail("Less compilation should have failed");
+        } catch (MojoFailureException e) {
+            assertThat(e.getCause().getMessage()).contains(broken.getAbsolutePath() + ":2:");
+        }
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.nanoko.coffee.mill.mojos.compile.OptiPNGMojo;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link ImageOptimizationLedger}.
+ */
+public class ImageOptimizationLedgerTest {
+
+    @Test
+    public void testRestoreOptimizedImage() throws IOException {
+        File dir = new File("target/test/testRestoreOptimizedImage");
+        FileUtils.deleteQuietly(dir);
+        OptiPNGMojo mojo = new OptiPNGMojo();
+        mojo.buildDirectory = dir;
+        mojo.incremental = true;
+        ImageOptimizationLedger ledger = ImageOptimizationLedger.forMojo(mojo, new File("pom.xml"), "-o2");
+
+        File image = new File(dir, "image.png");
+        FileUtils.write(image, "original");
+        String hash = HashUtils.sha1(image);
+        assertThat(ledger.restore(image, hash)).isFalse();
+
+        // Optimization
+        FileUtils.write(image, "optimized");
+        ledger.store(image, hash);
+
+        // The original is copied again, and restored from the ledger
+        FileUtils.write(image, "original");
+        assertThat(ledger.restore(image, hash)).isTrue();
+        assertThat(FileUtils.readFileToString(image)).isEqualTo("optimized");
+
+        // The optimized image is not optimized twice
+        assertThat(ledger.restore(image, HashUtils.sha1(image))).isTrue();
+
+        // Another level does not share the optimized images
+        ImageOptimizationLedger other = ImageOptimizationLedger.forMojo(mojo, new File("pom.xml"), "-o7");
+        assertThat(other.getDirectory()).isNotEqualTo(ledger.getDirectory());
+        assertThat(other.restore(image, hash)).isFalse();
+    }
+
+    @Test
+    public void testLedgerIsDisabledWhenNotIncremental() {
+        OptiPNGMojo mojo = new OptiPNGMojo();
+        mojo.buildDirectory = new File("target/test/testLedgerIsDisabledWhenNotIncremental");
+        mojo.incremental = false;
+        assertThat(ImageOptimizationLedger.forMojo(mojo, new File("pom.xml"), "-o2")).isNull();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link JasmineShardPlanner}.
+ */
+public class JasmineShardPlannerTest {
+
+    private File dir = new File("target/junk/jasmine-shards");
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testSplitIsBalancedByHistory() throws IOException {
+        File history = new File(dir, JasmineShardPlanner.HISTORY_FILE);
+        File slow = new File(dir, "slowSpec.js");
+        File a = new File(dir, "aSpec.js");
+        File b = new File(dir, "bSpec.js");
+        File c = new File(dir, "cSpec.js");
+        List<File> specs = Arrays.asList(a, b, slow, c);
+
+        JasmineShardPlanner planner = new JasmineShardPlanner(history);
+        planner.record(Arrays.asList(slow), 3000);
+        planner.record(Arrays.asList(a, b, c), 3000);
+        planner.save();
+
+        // Reloaded from the history
+        planner = new JasmineShardPlanner(history);
+        assertThat(planner.getEstimate(slow)).isEqualTo(3000.0);
+        assertThat(planner.getEstimate(a)).isEqualTo(1000.0);
+        List<List<File>> groups = planner.split(specs, 2);
+        assertThat(groups).hasSize(2);
+        assertThat(groups.get(0)).containsExactly(slow);
+        // The original order is kept
+        assertThat(groups.get(1)).containsExactly(a, b, c);
+
+        // Never more groups than specs
+        assertThat(planner.split(Arrays.asList(a), 4)).hasSize(1);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import com.github.searls.jasmine.TestMojo;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanoko.coffee.mill.mojos.test.JasmineMojo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the execution of specs in place in a shared browser.
+ */
+public class JasmineUtilsTest {
+
+    private File basedir = new File("target/junk/jasmine-utils").getAbsoluteFile();
+
+    private JasmineMojo mojo;
+
+    private JasmineBrowser browser;
+
+    @Before
+    public void setUp() {
+        FileUtils.deleteQuietly(basedir);
+        mojo = new JasmineMojo();
+        mojo.project = new MavenProject();
+        mojo.project.setFile(new File(basedir, "pom.xml"));
+        Build build = new Build();
+        build.setDirectory(new File(basedir, "target").getAbsolutePath());
+        mojo.project.setBuild(build);
+        browser = new JasmineBrowser(mojo.getLog());
+    }
+
+    @After
+    public void tearDown() {
+        browser.quit();
+        FileUtils.deleteQuietly(basedir);
+    }
+
+    @Test
+    public void testRunSpecsInPlace() throws Exception {
+        File source = new File(basedir, "target/www/calc.js");
+        FileUtils.write(source, "var calc = { add: function(a, b) { return a + b; } };");
+        File passing = new File(basedir, "target/www-test/calcSpec.js");
+        FileUtils.write(passing,
+                "describe('calc', function() { it('adds', function() { expect(calc.add(1, 2)).toEqual(3); }); });");
+        File failing = new File(basedir, "target/www-test/failingSpec.js");
+        FileUtils.write(failing,
+                "describe('calc', function() { it('fails', function() { expect(calc.add(1, 1)).toEqual(3); }); });");
+
+        TestMojo jasmine = new TestMojo();
+        JasmineUtils.prepareJasmineMojo(mojo, jasmine, null);
+        File directory = JasmineUtils.getJasmineDirectory(mojo.project);
+        JasmineUtils.runSpecs(mojo, jasmine, browser, Collections.singletonList(source),
+                Collections.singletonList(passing), directory, "TEST-pass.xml");
+        assertThat(FileUtils.readFileToString(new File(directory, "TEST-pass.xml"))).contains("failures=\"0\"");
+        // Nothing copied
+        assertThat(new File(directory, "src").exists()).isFalse();
+
+        try {
+            JasmineUtils.runSpecs(mojo, jasmine, browser, Collections.singletonList(source),
+                    Collections.singletonList(failing), directory, "TEST-fail.xml");
+            fail("Failure expected");
+        } catch (MojoFailureException e) {
+            assertThat(FileUtils.readFileToString(new File(directory, "TEST-fail.xml"))).contains("failures=\"1\"");
+        }
+    }
+
+    @Test
+    public void testMergeJunitReports() throws Exception {
+        File first = new File(basedir, "first.xml");
+        FileUtils.write(first, "<testsuite errors=\"0\" name=\"jasmine.specs\" tests=\"2\" failures=\"1\" "
+                + "skipped=\"0\" time=\"0.5\"><testcase classname=\"jasmine\" name=\"a\"/>"
+                + "<testcase classname=\"jasmine\" name=\"b\"><failure/></testcase></testsuite>");
+        File second = new File(basedir, "second.xml");
+        FileUtils.write(second, "<testsuite errors=\"0\" name=\"jasmine.specs\" tests=\"1\" failures=\"0\" "
+                + "skipped=\"1\" time=\"0.25\"><testcase classname=\"jasmine\" name=\"c\"/></testsuite>");
+        File merged = new File(basedir, "merged.xml");
+
+        JasmineUtils.mergeJunitReports(Arrays.asList(first, new File(basedir, "missing.xml"), second), merged);
+
+        String content = FileUtils.readFileToString(merged);
+        assertThat(content).contains("tests=\"3\"").contains("failures=\"1\"").contains("skipped=\"1\"")
+                .contains("time=\"0.75\"").contains("name=\"c\"");
+    }
+
+    @Test
+    public void testListScripts() throws Exception {
+        File directory = new File(basedir, "specs");
+        FileUtils.write(new File(directory, "b/b.js"), "");
+        FileUtils.write(new File(directory, "a.js"), "");
+        FileUtils.write(new File(directory, "readme.txt"), "");
+
+        assertThat(JasmineUtils.listScripts(directory)).containsExactly(new File(directory, "a.js"),
+                new File(directory, "b/b.js"));
+        assertThat(JasmineUtils.listScripts(new File(basedir, "missing"))).isEmpty();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the {@link LessImportGraph} queries and persistence.
+ */
+public class LessImportGraphTest {
+
+    @Test
+    public void testGraphIsPersisted() {
+        File file = new File("target/test/LessImportGraphTest/less-imports.properties");
+        FileUtils.deleteQuietly(file);
+        File app = new File("app.less").getAbsoluteFile();
+        File admin = new File("admin dir/admin.less").getAbsoluteFile();
+        File variables = new File("theme/variables.less").getAbsoluteFile();
+        File mixins = new File("theme/mixins.less").getAbsoluteFile();
+
+        LessImportGraph graph = new LessImportGraph(file);
+        Map<File, String> imports = new LinkedHashMap<File, String>();
+        imports.put(variables, "v1");
+        graph.record(admin, imports);
+        imports.put(mixins, "m1");
+        graph.record(app, imports);
+        graph.record(new File("print.less"), new LinkedHashMap<File, String>());
+        graph.save();
+
+        graph = new LessImportGraph(file);
+        assertThat(graph.getImporters(variables)).containsOnly(app, admin);
+        assertThat(graph.getImporters(mixins)).containsOnly(app);
+        assertThat(graph.isImported(app)).isFalse();
+        assertThat(graph.getImports(app)).isEqualTo(imports);
+        assertThat(graph.getImports(new File("print.less"))).isEmpty();
+        assertThat(graph.getImports(variables)).isNull();
+
+        graph.remove(app);
+        assertThat(graph.getImporters(mixins)).isEmpty();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link OutputStore}.
+ */
+public class OutputStoreTest {
+
+    private File dir = new File("target/junk/output-store");
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        FileUtils.write(new File(dir, "disk.js"), "disk");
+        FileUtils.write(new File(dir, "old.js"), "old");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testStoreShadowsTheDisk() throws IOException {
+        OutputStore store = new OutputStore(false, new SystemStreamLog());
+        File memory = new File(dir, "sub/memory.js");
+        store.write(memory, "memory".getBytes());
+        store.delete(new File(dir, "old.js"));
+
+        assertThat(new String(store.read(memory))).isEqualTo("memory");
+        assertThat(new String(store.read(new File(dir, "disk.js")))).isEqualTo("disk");
+        assertThat(store.isFile(memory)).isTrue();
+        assertThat(store.isFile(new File(dir, "old.js"))).isFalse();
+        // Nothing written on the disk
+        assertThat(memory.exists()).isFalse();
+        assertThat(new File(dir, "old.js").exists()).isTrue();
+
+        Collection<File> files = store.listFiles(dir, new String[]{"js"});
+        assertThat(files).containsOnly(memory.getAbsoluteFile(), new File(dir, "disk.js").getAbsoluteFile());
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        OutputStore store = new OutputStore(true, new SystemStreamLog());
+        try {
+            File memory = new File(dir, "memory.js");
+            store.write(memory, "v1".getBytes());
+            store.write(memory, "v2".getBytes());
+            store.delete(new File(dir, "old.js"));
+            store.flush();
+
+            assertThat(FileUtils.readFileToString(memory)).isEqualTo("v2");
+            assertThat(new File(dir, "old.js").exists()).isFalse();
+            assertThat(store.isWrittenByStore(memory)).isTrue();
+            assertThat(store.isWrittenByStore(new File(dir, "disk.js"))).isFalse();
+        } finally {
+            store.stop();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the behavior of the {@link ProcessScheduler}.
+ */
+public class ProcessSchedulerTest {
+
+    private static final File JAVA = new File(System.getProperty("java.home"), "bin/java");
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        final ProcessScheduler scheduler = new ProcessScheduler(2, 60000, new SystemStreamLog());
+        ExecutorService executor = scheduler.start();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        CommandLine cmdLine = new CommandLine(JAVA);
+                        cmdLine.addArgument("-version");
+                        scheduler.execute(cmdLine, new File("target"));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        scheduler.stop();
+    }
+
+    @Test
+    public void testFailingProcess() {
+        ProcessScheduler scheduler = new ProcessScheduler(1, 0, new SystemStreamLog());
+        CommandLine cmdLine = new CommandLine(JAVA);
+        cmdLine.addArgument("-this-option-does-not-exist");
+        try {
+            scheduler.execute(cmdLine, new File("target"));
+            fail("The process is expected to fail");
+        } catch (IOException e) {
+            assertThat(e).isNotNull();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the binding of Java values in the {@link RhinoLauncher} scopes.
+ */
+public class RhinoLauncherTest {
+
+    @Test
+    public void testCallPassesStringsUnchanged() {
+        String source = "line \"one\"\r\nline 'two' \\n\n\n\u00e9\n";
+        RhinoLauncher launcher = RhinoLauncher.newChain().evaluateChain(
+                "var compiler = { compile: function(s, options) { return s + options.suffix + this.version; }, "
+                        + "version: 2 };", "compiler.js");
+
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("suffix", "-");
+        assertThat(launcher.call("compiler.compile", source, options)).isEqualTo(source + "-2");
+    }
+
+    @Test
+    public void testPutBindsScopeProperties() {
+        RhinoLauncher launcher = RhinoLauncher.newChain();
+        launcher.put("data", "a\nb");
+        assertThat(launcher.evaluate("String(data.split('\\n').length)", "test").toString()).isEqualTo("2");
+        assertThat(launcher.call("String", 42).toString()).isEqualTo("42");
+    }
+}
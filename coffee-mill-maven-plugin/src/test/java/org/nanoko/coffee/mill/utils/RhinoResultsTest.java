@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.junit.Test;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the reading of the JavaScript results with {@link RhinoResults}.
+ */
+public class RhinoResultsTest {
+
+    private static final String LINT = "var lint = function() { return { messages: ["
+            + "{ type: 'warning', line: 3, col: 12, message: 'Don\\'t use IDs', evidence: '#id { }' }, "
+            + "{ type: 'error', message: 'Too many rules' }, 'not an object'] }; };";
+
+    @Test
+    public void testReadMessages() {
+        RhinoLauncher launcher = RhinoLauncher.newChain().evaluateChain(LINT, "lint.js");
+        Scriptable result = (Scriptable) launcher.call("lint");
+
+        List<Scriptable> messages = RhinoResults.getObjects(result, "messages");
+        assertThat(messages).hasSize(2);
+        assertThat(RhinoResults.getString(messages.get(0), "type")).isEqualTo("warning");
+        assertThat(RhinoResults.getInt(messages.get(0), "line", 0)).isEqualTo(3);
+        assertThat(RhinoResults.getInt(messages.get(0), "col", 0)).isEqualTo(12);
+        assertThat(RhinoResults.getString(messages.get(0), "message")).isEqualTo("Don't use IDs");
+        // Rollup messages have no position
+        assertThat(RhinoResults.getInt(messages.get(1), "line", 0)).isEqualTo(0);
+        assertThat(RhinoResults.getString(messages.get(1), "evidence")).isNull();
+        assertThat(RhinoResults.getString(messages.get(0), "line")).isEqualTo("3");
+
+        assertThat(RhinoResults.getObjects(result, "missing")).isEmpty();
+    }
+}
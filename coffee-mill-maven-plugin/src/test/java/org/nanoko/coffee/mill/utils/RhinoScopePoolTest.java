@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link RhinoScopePool}.
+ */
+public class RhinoScopePoolTest {
+
+    private int created = 0;
+
+    private RhinoScopePool.ScopeFactory factory = new RhinoScopePool.ScopeFactory() {
+        public RhinoLauncher create(RhinoClassCache cache) {
+            created++;
+            return RhinoLauncher.newChain().evaluateChain("var twice = function(x) { return x * 2; };", "twice.js");
+        }
+    };
+
+    @Test
+    public void testSharedScopeIsInitializedOnce() {
+        String key = "testSharedScopeIsInitializedOnce";
+        assertThat(RhinoScopePool.newChain(key, null, factory).evaluate("String(twice(2))", "test").toString())
+                .isEqualTo("4");
+        assertThat(RhinoScopePool.newChain(key, null, factory).evaluate("String(twice(3))", "test").toString())
+                .isEqualTo("6");
+        assertThat(created).isEqualTo(1);
+    }
+
+    @Test
+    public void testChildScopesAreIsolated() {
+        String key = "testChildScopesAreIsolated";
+        RhinoScopePool.newChain(key, null, factory).evaluate("var result = twice(21);", "test");
+        assertThat(RhinoScopePool.newChain(key, null, factory).evaluate("typeof result", "test").toString())
+                .isEqualTo("undefined");
+        assertThat(RhinoScopePool.getSharedScope(key, null, factory).has("result",
+                RhinoScopePool.getSharedScope(key, null, factory))).isFalse();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 OW2 Nanoko Project
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.nanoko.coffee.mill.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link WorkerPool}.
+ */
+public class WorkerPoolTest {
+
+    private static final Callable<String> TASK = new Callable<String>() {
+        public String call() {
+            return Thread.currentThread().getName();
+        }
+    };
+
+    @Test
+    public void testPoolsOfOtherSizesStayUsable() throws Exception {
+        ExecutorService two = WorkerPool.get(2);
+        ExecutorService three = WorkerPool.get(3);
+        assertThat(three).isNotSameAs(two);
+        assertThat(WorkerPool.get(2)).isSameAs(two);
+
+        assertThat(two.isShutdown()).isFalse();
+        assertThat(two.submit(TASK).get()).startsWith("coffee-mill-worker-2-");
+        assertThat(three.submit(TASK).get()).startsWith("coffee-mill-worker-3-");
+    }
+}